@@ -23,13 +23,14 @@ import java.util.Map;
 import java.util.Set;
 import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
-import lombok.Synchronized;
 
 import static lombok.AccessLevel.PROTECTED;
 
 /**
  * Abstract base class for {@link.uri http://www.upnp.org/ UPnP}
- * {@link Device}s.
+ * {@link Device}s.  The {@link #getUSNSnapshot() USN snapshot} is
+ * cached and published without locking; subclasses must call
+ * {@link #invalidate()} after changing the device tree.
  *
  * {@bean.info}
  *
@@ -37,18 +38,34 @@ import static lombok.AccessLevel.PROTECTED;
  */
 @NoArgsConstructor(access = PROTECTED) @EqualsAndHashCode
 public abstract class AbstractDevice implements AnnotatedDevice {
-    private Map<URI,Set<URI>> map = null;
+    @EqualsAndHashCode.Exclude
+    private volatile USNSnapshot snapshot = null;
 
-    @Synchronized
     @Override
-    public Map<URI,Set<URI>> getUSNMap() {
-        if (map == null) {
-            map = AnnotatedDevice.super.getUSNMap();
+    public Map<URI,Set<URI>> getUSNMap() { return getUSNSnapshot().getMap(); }
+
+    @Override
+    public USNSnapshot getUSNSnapshot() {
+        USNSnapshot snapshot = this.snapshot;
+
+        if (snapshot == null || (! snapshot.isCurrent())) {
+            long generation = USNSnapshot.generation();
+
+            snapshot = new USNSnapshot(generation, AnnotatedDevice.super.getUSNMap());
+
+            this.snapshot = snapshot;
         }
 
-        return map;
+        return snapshot;
     }
 
+    /**
+     * Method to invalidate cached {@link USNSnapshot}s.  Must be called
+     * after {@link.this} {@link Device}'s {@link Service}s or embedded
+     * {@link Device}s change.
+     */
+    public void invalidate() { USNSnapshot.invalidate(); }
+
     @Override
     public String toString() { return getDeviceType().toString(); }
 }
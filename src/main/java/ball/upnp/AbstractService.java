@@ -19,23 +19,21 @@ package ball.upnp;
  * ##########################################################################
  */
 import java.net.URI;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
-import lombok.Synchronized;
 
 import static lombok.AccessLevel.PROTECTED;
 
 /**
  * Abstract base class for {@link.uri http://www.upnp.org/ UPnP}
- * {@link Service}s.
+ * {@link Service}s.  The {@link #getUSNSnapshot() USN snapshot} is
+ * cached and published without locking; subclasses must call
+ * {@link #invalidate()} after changing the hosting {@link Device}.
  *
  * {@bean.info}
  *
@@ -47,18 +45,33 @@ public abstract class AbstractService implements AnnotatedService {
     private final List<? extends Action> actionList = new LinkedList<>();
     @Getter
     private final List<? extends StateVariable> serviceStateTable = new LinkedList<>();
-    private Map<URI,Set<URI>> map = null;
+    @EqualsAndHashCode.Exclude
+    private volatile USNSnapshot snapshot = null;
 
-    @Synchronized
     @Override
-    public Map<URI,Set<URI>> getUSNMap() {
-        if (map == null) {
-            map = AnnotatedService.super.getUSNMap();
+    public Map<URI,Set<URI>> getUSNMap() { return getUSNSnapshot().getMap(); }
+
+    @Override
+    public USNSnapshot getUSNSnapshot() {
+        USNSnapshot snapshot = this.snapshot;
+
+        if (snapshot == null || (! snapshot.isCurrent())) {
+            long generation = USNSnapshot.generation();
+
+            snapshot = new USNSnapshot(generation, AnnotatedService.super.getUSNMap());
+
+            this.snapshot = snapshot;
         }
 
-        return map;
+        return snapshot;
     }
 
+    /**
+     * Method to invalidate cached {@link USNSnapshot}s.  Must be called
+     * after {@link.this} {@link Service}'s {@link Device} changes.
+     */
+    public void invalidate() { USNSnapshot.invalidate(); }
+
     @Override
     public String toString() { return getServiceType().toString(); }
 }
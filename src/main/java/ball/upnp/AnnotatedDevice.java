@@ -20,7 +20,6 @@ package ball.upnp;
  */
 import ball.upnp.annotation.DeviceType;
 import java.net.URI;
-import org.springframework.core.annotation.AnnotationUtils;
 
 /**
  * {@link Device} support for {@link DeviceType} and related annotations.
@@ -29,9 +28,5 @@ import org.springframework.core.annotation.AnnotationUtils;
  */
 public interface AnnotatedDevice extends Device {
     @Override
-    default URI getDeviceType() {
-        DeviceType annotation = AnnotationUtils.findAnnotation(getClass(), DeviceType.class);
-
-        return (annotation != null) ? URI.create(annotation.value()) : null;
-    }
+    default URI getDeviceType() { return TypeMetadata.of(getClass()).getDeviceType(); }
 }
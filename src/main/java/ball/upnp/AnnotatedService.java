@@ -21,7 +21,6 @@ package ball.upnp;
 import ball.upnp.annotation.ServiceId;
 import ball.upnp.annotation.ServiceType;
 import java.net.URI;
-import org.springframework.core.annotation.AnnotationUtils;
 
 /**
  * {@link Service} support for {@link ServiceType} and related annotations.
@@ -30,16 +29,12 @@ import org.springframework.core.annotation.AnnotationUtils;
  */
 public interface AnnotatedService extends Service {
     @Override
-    default URI getServiceType() {
-        ServiceType annotation = AnnotationUtils.findAnnotation(getClass(), ServiceType.class);
-
-        return (annotation != null) ? URI.create(annotation.value()) : null;
-    }
+    default URI getServiceType() { return TypeMetadata.of(getClass()).getServiceType(); }
 
     @Override
     default URI getServiceId() {
-        ServiceId annotation = AnnotationUtils.findAnnotation(getClass(), ServiceId.class);
+        URI serviceId = TypeMetadata.of(getClass()).getServiceId();
 
-        return (annotation != null) ? URI.create(annotation.value()) : getServiceType();
+        return (serviceId != null) ? serviceId : getServiceType();
     }
 }
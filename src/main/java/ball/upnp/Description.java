@@ -19,7 +19,6 @@ package ball.upnp;
  * ##########################################################################
  */
 import ball.upnp.annotation.XmlNs;
-import org.springframework.core.annotation.AnnotationUtils;
 
 /**
  * {@link Description} support for {@link XmlNs} annotation.
@@ -33,9 +32,5 @@ public interface Description {
      *
      * @return  The name.
      */
-    default String getXmlns() {
-        XmlNs annotation = AnnotationUtils.findAnnotation(getClass(), XmlNs.class);
-
-        return (annotation != null) ? annotation.value() : null;
-    }
+    default String getXmlns() { return TypeMetadata.of(getClass()).getXmlns(); }
 }
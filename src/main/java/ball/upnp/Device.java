@@ -19,6 +19,7 @@ package ball.upnp;
  * ##########################################################################
  */
 import ball.upnp.annotation.XmlNs;
+import ball.upnp.ssdp.SSDPTarget;
 import java.net.URI;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -79,6 +80,12 @@ public interface Device extends Description, SSDP {
     default Map<URI,Set<URI>> getUSNMap() {
         LinkedHashMap<URI,Set<URI>> map = new LinkedHashMap<>();
         Function<URI,Set<URI>> mapper = k -> new LinkedHashSet<>();
+        URI udn = getUDN();
+        URI deviceType = getDeviceType();
+
+        if (deviceType != null) {
+            deviceType = SSDPTarget.of(deviceType).toURI();
+        }
 
         if (this instanceof RootDevice) {
             map.computeIfAbsent(getUSN(RootDevice.NT), mapper)
@@ -86,16 +93,16 @@ public interface Device extends Description, SSDP {
         }
 
         map.computeIfAbsent(getUSN(null), mapper)
-            .add(getUDN());
-        map.computeIfAbsent(getUSN(getDeviceType()), mapper)
-            .add(getDeviceType());
-
-        if (this instanceof RootDevice) {
-            Stream.concat(getServiceList().stream(), getDeviceList().stream())
-                .map(SSDP::getUSNMap)
-                .forEach(t -> t.forEach((k, v) -> map.computeIfAbsent(k, mapper).addAll(v)));
+            .add(udn);
+        if (deviceType != null) {
+            map.computeIfAbsent(getUSN(deviceType), mapper)
+                .add(deviceType);
         }
 
+        Stream.concat(getServiceList().stream(), getDeviceList().stream())
+            .map(SSDP::getUSNSnapshot)
+            .forEach(t -> t.forEach((nt, usn) -> map.computeIfAbsent(usn, mapper).add(nt)));
+
         return map;
     }
 
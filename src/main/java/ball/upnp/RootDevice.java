@@ -18,9 +18,8 @@ package ball.upnp;
  * limitations under the License.
  * ##########################################################################
  */
+import ball.upnp.ssdp.SSDPTarget;
 import java.net.URI;
-import java.util.Map;
-import java.util.Set;
 import java.util.function.BiConsumer;
 
 /**
@@ -33,7 +32,7 @@ public interface RootDevice extends Device {
     /**
      * {@code upnp:rootdevice}
      */
-    public static final URI NT = URI.create("upnp:rootdevice");
+    public static final URI NT = SSDPTarget.of("upnp:rootdevice").toURI();
 
     /**
      * {@code CONFIGID.UPNP.ORG}
@@ -67,11 +66,12 @@ public interface RootDevice extends Device {
     /**
      * Method to invoke {@link BiConsumer consumer} for every {@link URI NT}
      * / {@link URI USN} combinations representing the {@link RootDevice}
-     * with embedded {@link Service}s and {@link Device}s.
+     * with embedded {@link Service}s and {@link Device}s.  Iterates the
+     * flattened pairs of {@link #getUSNSnapshot()}.
      *
      * @param   consumer        The {@link BiConsumer}.
      */
     default void notify(BiConsumer<URI,URI> consumer) {
-        getUSNMap().forEach((usn, v) -> v.forEach(nt -> consumer.accept(nt, usn)));
+        getUSNSnapshot().forEach(consumer);
     }
 }
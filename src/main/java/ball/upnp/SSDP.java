@@ -18,13 +18,12 @@ package ball.upnp;
  * limitations under the License.
  * ##########################################################################
  */
+import ball.upnp.ssdp.SSDPTarget;
 import java.net.URI;
 import java.util.Map;
 import java.util.Set;
 import java.util.function.Predicate;
 
-import static ball.upnp.ssdp.SSDPMessage.SSDP_ALL;
-
 /**
  * SSDP "discoverable" marker interface.
  *
@@ -43,6 +42,20 @@ public interface SSDP {
      */
     public Map<URI,Set<URI>> getUSNMap();
 
+    /**
+     * Method to get an immutable {@link USNSnapshot} of
+     * {@link #getUSNMap()}.  Implementations should cache the
+     * {@link USNSnapshot} until it is no longer
+     * {@link USNSnapshot#isCurrent() current}.
+     *
+     * @return  The {@link USNSnapshot}.
+     */
+    default USNSnapshot getUSNSnapshot() {
+        long generation = USNSnapshot.generation();
+
+        return new USNSnapshot(generation, getUSNMap());
+    }
+
     /**
      * Method to get the {@code USN} for this {@link Device}
      * {@code UDN}.
@@ -54,7 +67,8 @@ public interface SSDP {
     public URI getUSN(URI urn);
 
     /**
-     * Method to test if a {@code NT} satisfies an {@code ST}.
+     * Method to test if a {@code NT} satisfies an {@code ST}.  The
+     * header values are parsed (once) to {@link SSDPTarget}s.
      *
      * @param   st              The {@code ST} header value.
      * @param   nt              The {@code NT} header value.
@@ -63,42 +77,7 @@ public interface SSDP {
      *          {@code false} otherwise.
      */
     public static boolean matches(URI st, URI nt) {
-        boolean matches = SSDP_ALL.equals(st) || st.toString().equalsIgnoreCase(nt.toString());
-
-        if (! matches) {
-            try {
-                if (! matches) {
-                    if (st.getScheme().equalsIgnoreCase("uuid")) {
-                        matches |= st.toString().equalsIgnoreCase(nt.toString());
-                    }
-                }
-
-                if (! matches) {
-                    if (st.getScheme().equalsIgnoreCase("urn")) {
-                        /*
-                         * TBD: Create a real SSDP URN parser.
-                         */
-                        String string = st.toString().toUpperCase();
-                        int index = string.lastIndexOf(":");
-
-                        if (index != -1) {
-                            index += 1;
-
-                            String prefix = string.substring(0, index);
-                            String stVersion = string.replace(prefix, "");
-                            String ntVersion = nt.toString().toUpperCase().replace(prefix, "");
-
-                            if (stVersion.matches("[0-9]+") && ntVersion.matches("[0-9]+")) {
-                                matches |= Integer.decode(stVersion) <= Integer.decode(ntVersion);
-                            }
-                        }
-                    }
-                }
-            } catch (Exception exception) {
-            }
-        }
-
-        return matches;
+        return SSDPTarget.of(st).matches(SSDPTarget.of(nt));
     }
 
     /**
@@ -110,6 +89,8 @@ public interface SSDP {
      * @return  {@link Predicate} to test if {@code nt} against {@code st}.
      */
     public static Predicate<URI> matches(URI st) {
-        return t -> matches(st, t);
+        SSDPTarget target = SSDPTarget.of(st);
+
+        return t -> target.matches(SSDPTarget.of(t));
     }
 }
@@ -19,6 +19,7 @@ package ball.upnp;
  * ##########################################################################
  */
 import ball.upnp.annotation.XmlNs;
+import ball.upnp.ssdp.SSDPTarget;
 import java.net.URI;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -102,9 +103,14 @@ public interface Service extends Description, SSDP {
     default Map<URI,Set<URI>> getUSNMap() {
         LinkedHashMap<URI,Set<URI>> map = new LinkedHashMap<>();
         Function<URI,Set<URI>> mapper = k -> new LinkedHashSet<>();
+        URI serviceType = getServiceType();
 
-        map.computeIfAbsent(getUSN(getServiceType()), mapper)
-            .add(getServiceType());
+        if (serviceType != null) {
+            serviceType = SSDPTarget.of(serviceType).toURI();
+
+            map.computeIfAbsent(getUSN(serviceType), mapper)
+                .add(serviceType);
+        }
 
         return map;
     }
@@ -0,0 +1,120 @@
+package ball.upnp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.upnp.annotation.DeviceType;
+import ball.upnp.annotation.Metadata;
+import ball.upnp.annotation.ServiceId;
+import ball.upnp.annotation.ServiceType;
+import ball.upnp.annotation.XmlNs;
+import ball.upnp.ssdp.SSDPTarget;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.util.function.Function;
+import lombok.Getter;
+import lombok.ToString;
+import org.springframework.core.annotation.AnnotationUtils;
+
+/**
+ * Per-{@link Class} {@link DeviceType}, {@link ServiceType},
+ * {@link ServiceId}, and {@link XmlNs} metadata.  Each {@link Class}'s
+ * metadata is resolved once (through a {@link ClassValue}) from its
+ * generated {@link Metadata} companion (falling back to annotation
+ * reflection if there is none) and the values are converted to interned
+ * {@link URI}s.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString
+final class TypeMetadata {
+    private static final ClassValue<TypeMetadata> VALUE =
+        new ClassValue<TypeMetadata>() {
+            @Override
+            protected TypeMetadata computeValue(Class<?> type) { return new TypeMetadata(type); }
+        };
+
+    /**
+     * Static method to get the {@link TypeMetadata} for a {@link Class}.
+     *
+     * @param   type            The {@link Class}.
+     *
+     * @return  The {@link TypeMetadata}.
+     */
+    public static TypeMetadata of(Class<?> type) { return VALUE.get(type); }
+
+    @Getter private final URI deviceType;
+    @Getter private final URI serviceType;
+    @Getter private final URI serviceId;
+    @Getter private final String xmlns;
+    @Getter private final int version;
+
+    private TypeMetadata(Class<?> type) {
+        Metadata metadata = companion(type);
+        String deviceType = null;
+        String serviceType = null;
+        String serviceId = null;
+        String xmlns = null;
+
+        if (metadata != null) {
+            deviceType = metadata.getDeviceType();
+            serviceType = metadata.getServiceType();
+            serviceId = metadata.getServiceId();
+            xmlns = metadata.getXmlns();
+        } else {
+            deviceType = value(AnnotationUtils.findAnnotation(type, DeviceType.class), DeviceType::value);
+            serviceType = value(AnnotationUtils.findAnnotation(type, ServiceType.class), ServiceType::value);
+            serviceId = value(AnnotationUtils.findAnnotation(type, ServiceId.class), ServiceId::value);
+            xmlns = value(AnnotationUtils.findAnnotation(type, XmlNs.class), XmlNs::value);
+        }
+
+        this.deviceType = (deviceType != null) ? SSDPTarget.of(deviceType).toURI() : null;
+        this.serviceType = (serviceType != null) ? SSDPTarget.of(serviceType).toURI() : null;
+        this.serviceId = (serviceId != null) ? SSDPTarget.of(serviceId).toURI() : null;
+        this.xmlns = (xmlns != null) ? xmlns.intern() : null;
+
+        if (metadata != null) {
+            this.version = metadata.getVersion();
+        } else if (this.deviceType != null) {
+            this.version = SSDPTarget.of(this.deviceType).getVersion();
+        } else if (this.serviceType != null) {
+            this.version = SSDPTarget.of(this.serviceType).getVersion();
+        } else {
+            this.version = -1;
+        }
+    }
+
+    private static Metadata companion(Class<?> type) {
+        Metadata metadata = null;
+
+        try {
+            Class<?> companion = Class.forName(type.getName() + Metadata.SUFFIX, true, type.getClassLoader());
+
+            if (Metadata.class.isAssignableFrom(companion)) {
+                metadata = (Metadata) companion.getDeclaredConstructor().newInstance();
+            }
+        } catch (ReflectiveOperationException | LinkageError | SecurityException exception) {
+        }
+
+        return metadata;
+    }
+
+    private static <A extends Annotation> String value(A annotation, Function<A,String> value) {
+        return (annotation != null) ? value.apply(annotation) : null;
+    }
+}
@@ -0,0 +1,143 @@
+package ball.upnp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.net.URI;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Immutable snapshot of an {@link SSDP} {@link SSDP#getUSNMap() USN map}
+ * flattened to parallel {@code NT} and {@code USN} arrays.  Snapshots
+ * are stamped with the (JVM-wide) device tree generation current when
+ * they were created and are stale once {@link #invalidate()} is called
+ * (which must be called whenever any {@link Device} or {@link Service}
+ * tree changes).
+ *
+ * {@bean.info}
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(of = { "generation", "map" })
+public final class USNSnapshot {
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    /**
+     * Static method to get the current device tree generation.
+     *
+     * @return  The current generation.
+     */
+    public static long generation() { return GENERATION.get(); }
+
+    /**
+     * Static method to invalidate all {@link USNSnapshot}s.  Must be
+     * called after any {@link Device} or {@link Service} tree mutation.
+     */
+    public static void invalidate() { GENERATION.incrementAndGet(); }
+
+    @Getter private final long generation;
+    @Getter private final Map<URI,Set<URI>> map;
+    private final URI[] nt;
+    private final URI[] usn;
+
+    /**
+     * Sole constructor.
+     *
+     * @param   generation      The generation (from
+     *                          {@link #generation()}) read before
+     *                          {@code map} was computed.
+     * @param   map             The {@link SSDP#getUSNMap() USN map}.
+     */
+    public USNSnapshot(long generation, Map<URI,Set<URI>> map) {
+        LinkedHashMap<URI,Set<URI>> copy = new LinkedHashMap<>();
+        int size = 0;
+
+        for (Map.Entry<URI,Set<URI>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableSet(new LinkedHashSet<>(entry.getValue())));
+            size += entry.getValue().size();
+        }
+
+        this.generation = generation;
+        this.map = Collections.unmodifiableMap(copy);
+        this.nt = new URI[size];
+        this.usn = new URI[size];
+
+        int i = 0;
+
+        for (Map.Entry<URI,Set<URI>> entry : this.map.entrySet()) {
+            for (URI value : entry.getValue()) {
+                this.nt[i] = value;
+                this.usn[i] = entry.getKey();
+                i += 1;
+            }
+        }
+    }
+
+    /**
+     * Method to test if {@link.this} {@link USNSnapshot} is current
+     * (has not been invalidated).
+     *
+     * @return  {@code true} if current; {@code false} otherwise.
+     */
+    public boolean isCurrent() { return generation == GENERATION.get(); }
+
+    /**
+     * Method to get the number of {@code NT}/{@code USN} pairs.
+     *
+     * @return  The number of pairs.
+     */
+    public int size() { return nt.length; }
+
+    /**
+     * Method to get the {@code NT} of pair {@code index}.
+     *
+     * @param   index           The pair index.
+     *
+     * @return  The {@code NT} {@link URI}.
+     */
+    public URI getNT(int index) { return nt[index]; }
+
+    /**
+     * Method to get the {@code USN} of pair {@code index}.
+     *
+     * @param   index           The pair index.
+     *
+     * @return  The {@code USN} {@link URI}.
+     */
+    public URI getUSN(int index) { return usn[index]; }
+
+    /**
+     * Method to invoke {@link BiConsumer consumer} for every
+     * {@link URI NT} / {@link URI USN} pair.
+     *
+     * @param   consumer        The {@link BiConsumer}.
+     */
+    public void forEach(BiConsumer<URI,URI> consumer) {
+        for (int i = 0; i < nt.length; i += 1) {
+            consumer.accept(nt[i], usn[i]);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ball.upnp.annotation;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+/**
+ * Compile-time {@link DeviceType}, {@link ServiceType},
+ * {@link ServiceId}, and {@link XmlNs} metadata.  Implementations are
+ * generated by the {@link ball.upnp.annotation.processing annotation
+ * processors} as a companion to each annotated class named
+ * {@code <binary-name>}{@value #SUFFIX} so the values may be resolved at
+ * runtime without annotation reflection.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public interface Metadata {
+
+    /**
+     * Companion class name suffix: {@value}
+     */
+    public static final String SUFFIX = "_UPnPMetadata";
+
+    /**
+     * Method to get the {@link DeviceType} value.
+     *
+     * @return  The value or {@code null} if not specified.
+     */
+    public String getDeviceType();
+
+    /**
+     * Method to get the {@link ServiceType} value.
+     *
+     * @return  The value or {@code null} if not specified.
+     */
+    public String getServiceType();
+
+    /**
+     * Method to get the {@link ServiceId} value.
+     *
+     * @return  The value or {@code null} if not specified.
+     */
+    public String getServiceId();
+
+    /**
+     * Method to get the {@link XmlNs} value.
+     *
+     * @return  The value or {@code null} if not specified.
+     */
+    public String getXmlns();
+
+    /**
+     * Method to get the device or service type URN version.
+     *
+     * @return  The version or {@code -1} if not specified.
+     */
+    public int getVersion();
+}
@@ -19,7 +19,6 @@ package ball.upnp.annotation.processing;
  * ##########################################################################
  */
 import ball.annotation.ServiceProviderFor;
-import ball.annotation.processing.AnnotatedProcessor;
 import ball.annotation.processing.For;
 import ball.upnp.annotation.DeviceType;
 import javax.annotation.processing.Processor;
@@ -34,5 +33,5 @@ import lombok.ToString;
 @ServiceProviderFor({ Processor.class })
 @For({ DeviceType.class })
 @NoArgsConstructor @ToString
-public class DeviceTypeProcessor extends AnnotatedProcessor {
+public class DeviceTypeProcessor extends MetadataProcessor {
 }
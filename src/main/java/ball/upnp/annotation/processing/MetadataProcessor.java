@@ -0,0 +1,214 @@
+package ball.upnp.annotation.processing;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.annotation.processing.AnnotatedProcessor;
+import ball.upnp.annotation.DeviceType;
+import ball.upnp.annotation.Metadata;
+import ball.upnp.annotation.ServiceId;
+import ball.upnp.annotation.ServiceType;
+import ball.upnp.annotation.XmlNs;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.annotation.Annotation;
+import java.util.function.Function;
+import javax.annotation.processing.FilerException;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import static javax.lang.model.element.ElementKind.CLASS;
+import static javax.tools.Diagnostic.Kind.ERROR;
+
+/**
+ * Abstract base class for the {@link ball.upnp.annotation} processors.
+ * In addition to the {@link AnnotatedProcessor} checks, generates the
+ * {@link Metadata} companion for each annotated class.  Every processor
+ * generates the complete companion (with all annotation values) so the
+ * first processor to visit a class writes it and the
+ * {@link FilerException}s raised for the others are ignored.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@NoArgsConstructor @ToString
+abstract class MetadataProcessor extends AnnotatedProcessor {
+    @Override
+    protected void process(RoundEnvironment roundEnv, TypeElement annotation, Element element) {
+        super.process(roundEnv, annotation, element);
+
+        if (element.getKind() == CLASS) {
+            generate((TypeElement) element);
+        }
+    }
+
+    private void generate(TypeElement type) {
+        String name = elements.getBinaryName(type).toString() + Metadata.SUFFIX;
+        String pkg = elements.getPackageOf(type).getQualifiedName().toString();
+        String simple = pkg.isEmpty() ? name : name.substring(pkg.length() + 1);
+        String deviceType = find(type, DeviceType.class, DeviceType::value);
+        String serviceType = find(type, ServiceType.class, ServiceType::value);
+        String serviceId = find(type, ServiceId.class, ServiceId::value);
+        String xmlns = find(type, XmlNs.class, XmlNs::value);
+        int version = version((deviceType != null) ? deviceType : serviceType);
+
+        try (PrintWriter out = new PrintWriter(filer.createSourceFile(name, type).openWriter())) {
+            if (! pkg.isEmpty()) {
+                out.println("package " + pkg + ";");
+                out.println();
+            }
+
+            out.println("/**");
+            out.println(" * {@link " + Metadata.class.getName() + "} for {@link "
+                        + type.getQualifiedName() + "}.");
+            out.println(" */");
+            out.println("public final class " + simple + " implements " + Metadata.class.getName() + " {");
+            out.println("    public " + simple + "() { }");
+            method(out, "String", "getDeviceType", literal(deviceType));
+            method(out, "String", "getServiceType", literal(serviceType));
+            method(out, "String", "getServiceId", literal(serviceId));
+            method(out, "String", "getXmlns", literal(xmlns));
+            method(out, "int", "getVersion", String.valueOf(version));
+            out.println("}");
+        } catch (FilerException exception) {
+            /*
+             * Already generated by another processor.
+             */
+        } catch (IOException exception) {
+            print(ERROR, type, "%s", exception.getMessage());
+        }
+    }
+
+    /*
+     * Same search order as Spring's AnnotationUtils.findAnnotation(Class,
+     * Class): the type itself, its interfaces, and then its superclass.
+     */
+    private <A extends Annotation> String find(TypeElement type, Class<A> annotation, Function<A,String> value) {
+        String string = null;
+        A instance = type.getAnnotation(annotation);
+
+        if (instance != null) {
+            string = value.apply(instance);
+        } else {
+            for (TypeMirror mirror : type.getInterfaces()) {
+                string = find(mirror, annotation, value);
+
+                if (string != null) {
+                    break;
+                }
+            }
+
+            if (string == null) {
+                string = find(type.getSuperclass(), annotation, value);
+            }
+        }
+
+        return string;
+    }
+
+    private <A extends Annotation> String find(TypeMirror mirror, Class<A> annotation, Function<A,String> value) {
+        String string = null;
+
+        if (mirror.getKind() == TypeKind.DECLARED) {
+            string = find((TypeElement) ((DeclaredType) mirror).asElement(), annotation, value);
+        }
+
+        return string;
+    }
+
+    private static int version(String urn) {
+        int version = -1;
+
+        if (urn != null) {
+            String last = urn.substring(urn.lastIndexOf(':') + 1);
+
+            if (urn.regionMatches(true, 0, "urn:", 0, 4) && last.matches("[0-9]{1,9}")) {
+                version = Integer.parseInt(last);
+            }
+        }
+
+        return version;
+    }
+
+    private static void method(PrintWriter out, String type, String name, String value) {
+        out.println("    @Override");
+        out.println("    public " + type + " " + name + "() { return " + value + "; }");
+    }
+
+    private static String literal(String string) {
+        String literal = "null";
+
+        if (string != null) {
+            StringBuilder buffer = new StringBuilder("\"");
+
+            for (char character : string.toCharArray()) {
+                switch (character) {
+                case '"':
+                case '\\':
+                    buffer.append('\\').append(character);
+                    break;
+
+                case '\b':
+                    buffer.append("\\b");
+                    break;
+
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+
+                case '\f':
+                    buffer.append("\\f");
+                    break;
+
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+
+                default:
+                    /*
+                     * Unicode escapes are translated before the generated
+                     * source is tokenized (an escaped line feed would end
+                     * the literal) so control characters are octal
+                     * escapes.
+                     */
+                    if (character < 0x20 || character == 0x7F) {
+                        buffer.append(String.format("\\%03o", (int) character));
+                    } else if (character > 0x7E) {
+                        buffer.append(String.format("\\u%04x", (int) character));
+                    } else {
+                        buffer.append(character);
+                    }
+                    break;
+                }
+            }
+
+            literal = buffer.append('"').toString();
+        }
+
+        return literal;
+    }
+}
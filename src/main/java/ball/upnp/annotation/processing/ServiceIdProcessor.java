@@ -19,7 +19,6 @@ package ball.upnp.annotation.processing;
  * ##########################################################################
  */
 import ball.annotation.ServiceProviderFor;
-import ball.annotation.processing.AnnotatedProcessor;
 import ball.annotation.processing.For;
 import ball.upnp.annotation.ServiceId;
 import javax.annotation.processing.Processor;
@@ -34,5 +33,5 @@ import lombok.ToString;
 @ServiceProviderFor({ Processor.class })
 @For({ ServiceId.class })
 @NoArgsConstructor @ToString
-public class ServiceIdProcessor extends AnnotatedProcessor {
+public class ServiceIdProcessor extends MetadataProcessor {
 }
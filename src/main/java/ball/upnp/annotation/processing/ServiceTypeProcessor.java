@@ -19,7 +19,6 @@ package ball.upnp.annotation.processing;
  * ##########################################################################
  */
 import ball.annotation.ServiceProviderFor;
-import ball.annotation.processing.AnnotatedProcessor;
 import ball.annotation.processing.For;
 import ball.upnp.annotation.ServiceType;
 import javax.annotation.processing.Processor;
@@ -34,5 +33,5 @@ import lombok.ToString;
 @ServiceProviderFor({ Processor.class })
 @For({ ServiceType.class })
 @NoArgsConstructor @ToString
-public class ServiceTypeProcessor extends AnnotatedProcessor {
+public class ServiceTypeProcessor extends MetadataProcessor {
 }
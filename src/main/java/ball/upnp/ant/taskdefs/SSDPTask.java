@@ -136,8 +136,8 @@ public abstract class SSDPTask extends Task implements AnnotatedAntTask, Classpa
     }
 
     private class SSDPDiscoveryServiceImpl extends SSDPDiscoveryService {
-        public SSDPDiscoveryServiceImpl() throws IOException {
-            super(getProduct());
+        public SSDPDiscoveryServiceImpl(Role role) throws IOException {
+            super(getProduct(), new Configuration().role(role));
         }
     }
 
@@ -163,12 +163,12 @@ public abstract class SSDPTask extends Task implements AnnotatedAntTask, Classpa
                 Thread.currentThread().setContextClassLoader(getClassLoader());
 
                 SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
-                SSDPDiscoveryService service =
-                    new SSDPDiscoveryServiceImpl()
-                    .addListener(this)
-                    .addListener(cache);
 
-                service.awaitTermination(getTimeout(), SECONDS);
+                try (SSDPDiscoveryService service = new SSDPDiscoveryServiceImpl(SSDPDiscoveryService.Role.DEVICE)) {
+                    service.addListener(this).addListener(cache);
+
+                    SECONDS.sleep(getTimeout());
+                }
 
                 log(new TableModelImpl(cache));
             } catch (BuildException exception) {
@@ -230,11 +230,11 @@ public abstract class SSDPTask extends Task implements AnnotatedAntTask, Classpa
             try {
                 Thread.currentThread().setContextClassLoader(getClassLoader());
 
-                SSDPDiscoveryService service =
-                    new SSDPDiscoveryServiceImpl()
-                    .addListener(this);
+                try (SSDPDiscoveryService service = new SSDPDiscoveryServiceImpl(SSDPDiscoveryService.Role.MONITOR)) {
+                    service.addListener(this);
 
-                service.awaitTermination(Long.MAX_VALUE, SECONDS);
+                    SECONDS.sleep(Long.MAX_VALUE);
+                }
             } catch (BuildException exception) {
                 throw exception;
             } catch (Throwable throwable) {
@@ -270,13 +270,12 @@ public abstract class SSDPTask extends Task implements AnnotatedAntTask, Classpa
             try {
                 Thread.currentThread().setContextClassLoader(getClassLoader());
 
-                SSDPDiscoveryService service =
-                    new SSDPDiscoveryServiceImpl()
-                    .addListener(this)
-                    .addListener(new MSEARCH());
+                try (SSDPDiscoveryService service = new SSDPDiscoveryServiceImpl(SSDPDiscoveryService.Role.CONTROL_POINT)) {
+                    service.addListener(this).addListener(new MSEARCH());
+                    service.msearch(getMx(), getSt());
 
-                service.msearch(getMx(), getSt());
-                service.awaitTermination(getMx(), SECONDS);
+                    SECONDS.sleep(getMx());
+                }
 
                 log(new MapTableModel(map, SSDPMessage.USN, SSDPMessage.LOCATION));
             } catch (BuildException exception) {
@@ -0,0 +1,194 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.net.URI;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.function.Predicate;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * {@link SSDPDiscoveryCache} bounded-capacity admission policy: A
+ * segmented LRU of {@code USN}s gated by a TinyLFU
+ * {@link FrequencySketch} of {@code UDN}s.  New entries are
+ * probationary and are promoted to the protected segment when
+ * refreshed; the eviction victim is the least recently used
+ * probationary entry (or the least recently used protected entry if
+ * there are none).  A new entry is only admitted if its device has been
+ * seen more frequently than the victim's (or as frequently if the device
+ * is already cached, or unconditionally if the victim belongs to the
+ * same device) so a flood of one-off {@code USN}s displaces (at most)
+ * other one-off {@code USN}s.  {@code UDN}s are hashed with a random
+ * per-instance seed so colliding {@code UDN}s cannot be crafted to
+ * inflate a victim's (or deflate an attacker's) estimated frequency.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(of = { "maximumSize" })
+class AdmissionPolicy {
+    @Getter private final int maximumSize;
+    private final int protectedSize;
+    private final FrequencySketch sketch;
+    private final long seed = new SecureRandom().nextLong();
+    private final LinkedHashMap<URI,Boolean> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<URI,Boolean> protection = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Sole constructor.
+     *
+     * @param   maximumSize     The maximum number of entries.
+     */
+    public AdmissionPolicy(int maximumSize) {
+        this.maximumSize = maximumSize;
+        this.protectedSize = (int) (maximumSize * 0.8);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    /**
+     * Method to record a message from a device.
+     *
+     * @param   udn             The {@code UDN}.
+     */
+    public void increment(String udn) { sketch.increment(hash(udn)); }
+
+    private long hash(String udn) {
+        long h = seed;
+
+        for (int i = 0, n = udn.length(); i < n; i += 1) {
+            h = (h ^ udn.charAt(i)) * 0x9e3779b97f4a7c15L;
+            h ^= h >>> 29;
+        }
+
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * Method to record an entry being added or refreshed.
+     *
+     * @param   usn             The {@code USN}.
+     * @param   refreshed       {@code true} if the entry replaced an
+     *                          entry with the same {@code USN};
+     *                          {@code false} if new.
+     */
+    public synchronized void touch(URI usn, boolean refreshed) {
+        if (protection.containsKey(usn)) {
+            protection.get(usn);
+        } else if (refreshed && probation.remove(usn) != null) {
+            protection.put(usn, Boolean.TRUE);
+
+            if (protection.size() > protectedSize) {
+                Iterator<URI> iterator = protection.keySet().iterator();
+                URI eldest = iterator.next();
+
+                iterator.remove();
+                probation.put(eldest, Boolean.TRUE);
+            }
+        } else {
+            probation.put(usn, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Method to record an entry being removed.
+     *
+     * @param   usn             The {@code USN}.
+     */
+    public synchronized void remove(URI usn) {
+        if (probation.remove(usn) == null) {
+            protection.remove(usn);
+        }
+    }
+
+    /**
+     * Method to get the eviction victim.
+     *
+     * @param   present         {@link Predicate} to test if a
+     *                          {@code USN} is still present (absent
+     *                          {@code USN}s are discarded).
+     *
+     * @return  The victim {@code USN} ({@code null} if none).
+     */
+    public synchronized URI victim(Predicate<URI> present) {
+        URI victim = victim(probation, present);
+
+        if (victim == null) {
+            victim = victim(protection, present);
+        }
+
+        return victim;
+    }
+
+    private URI victim(LinkedHashMap<URI,Boolean> segment, Predicate<URI> present) {
+        URI victim = null;
+        Iterator<URI> iterator = segment.keySet().iterator();
+
+        while (victim == null && iterator.hasNext()) {
+            victim = iterator.next();
+
+            if (! present.test(victim)) {
+                iterator.remove();
+                victim = null;
+            }
+        }
+
+        return victim;
+    }
+
+    /**
+     * Method to decide if a new entry should be admitted (by evicting
+     * {@code victim}).
+     *
+     * @param   udn             The new entry's {@code UDN}.
+     * @param   cached          {@code true} if the device already has
+     *                          cached entries.
+     * @param   victim          The victim {@code USN} (may be
+     *                          {@code null}).
+     *
+     * @return  {@code true} to admit; {@code false} to reject.
+     */
+    public boolean admit(String udn, boolean cached, URI victim) {
+        boolean admit = (victim == null);
+
+        if (! admit) {
+            String other = DeviceRecord.udn(victim);
+
+            if (udn.equals(other)) {
+                admit = true;
+            } else {
+                int frequency = sketch.frequency(hash(udn));
+                int threshold = sketch.frequency(hash(other));
+
+                admit = cached ? (frequency >= threshold) : (frequency > threshold);
+            }
+        }
+
+        return admit;
+    }
+
+    /**
+     * Method to clear the segments (the frequency history is retained).
+     */
+    public synchronized void clear() {
+        probation.clear();
+        protection.clear();
+    }
+}
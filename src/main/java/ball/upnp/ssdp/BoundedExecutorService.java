@@ -0,0 +1,101 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * {@link ExecutorService} that bounds the number of tasks in progress
+ * on a delegate (unbounded) {@link ExecutorService}, e.g., one that
+ * starts a virtual {@link Thread} per task.  Tasks executed when the
+ * bound is reached are rejected with a
+ * {@link RejectedExecutionException}.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(of = { "capacity" })
+class BoundedExecutorService extends AbstractExecutorService {
+    private final ExecutorService delegate;
+    @Getter private final int capacity;
+    private final Semaphore permits;
+
+    /**
+     * Sole constructor.
+     *
+     * @param   delegate        The delegate {@link ExecutorService}.
+     * @param   capacity        The maximum number of tasks in progress.
+     */
+    public BoundedExecutorService(ExecutorService delegate, int capacity) {
+        this.delegate = delegate;
+        this.capacity = capacity;
+        this.permits = new Semaphore(capacity);
+    }
+
+    /**
+     * Method to get the number of tasks in progress (started or waiting
+     * to start).
+     *
+     * @return  The number of tasks in progress.
+     */
+    public int getActiveCount() { return capacity - permits.availablePermits(); }
+
+    @Override
+    public void execute(Runnable command) {
+        if (! permits.tryAcquire()) {
+            throw new RejectedExecutionException();
+        }
+
+        try {
+            delegate.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        permits.release();
+                    }
+                });
+        } catch (RuntimeException exception) {
+            permits.release();
+            throw exception;
+        }
+    }
+
+    @Override
+    public void shutdown() { delegate.shutdown(); }
+
+    @Override
+    public List<Runnable> shutdownNow() { return delegate.shutdownNow(); }
+
+    @Override
+    public boolean isShutdown() { return delegate.isShutdown(); }
+
+    @Override
+    public boolean isTerminated() { return delegate.isTerminated(); }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+}
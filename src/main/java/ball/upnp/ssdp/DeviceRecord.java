@@ -0,0 +1,862 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.Value;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.ProtocolException;
+import org.apache.hc.core5.http.ProtocolVersion;
+import org.apache.hc.core5.http.message.BasicHeader;
+
+import static ball.upnp.ssdp.SSDPMessage.BOOTID_UPNP_ORG;
+import static ball.upnp.ssdp.SSDPMessage.CACHE_CONTROL;
+import static ball.upnp.ssdp.SSDPMessage.CONFIGID_UPNP_ORG;
+import static ball.upnp.ssdp.SSDPMessage.DATE;
+import static ball.upnp.ssdp.SSDPMessage.EOL;
+import static ball.upnp.ssdp.SSDPMessage.EOM;
+import static ball.upnp.ssdp.SSDPMessage.LOCATION;
+import static ball.upnp.ssdp.SSDPMessage.MAX_AGE;
+import static ball.upnp.ssdp.SSDPMessage.NEXTBOOTID_UPNP_ORG;
+import static ball.upnp.ssdp.SSDPMessage.NT;
+import static ball.upnp.ssdp.SSDPMessage.SEARCHPORT_UPNP_ORG;
+import static ball.upnp.ssdp.SSDPMessage.SERVER;
+import static ball.upnp.ssdp.SSDPMessage.ST;
+import static ball.upnp.ssdp.SSDPMessage.USER_AGENT;
+import static ball.upnp.ssdp.SSDPMessage.USN;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.stream.Collectors.joining;
+import static org.apache.commons.lang3.StringUtils.EMPTY;
+import static org.apache.hc.core5.http.HttpVersion.HTTP_1_1;
+
+/**
+ * {@link SSDPDiscoveryCache} device record: The values shared by every
+ * {@code USN} of a {@code UDN} ({@code LOCATION}, {@code SERVER},
+ * {@code BOOTID.UPNP.ORG}, {@code CONFIGID.UPNP.ORG}, and
+ * {@code SEARCHPORT.UPNP.ORG}) are stored once and each {@code USN} is a
+ * small {@link Entry} holding only its {@code NT}, expiration, and
+ * references to the received message's start line and remaining headers
+ * (e.g., {@code EXT} and vendor headers).  The remaining headers are
+ * shared by the record's entries since a device sends the same ones
+ * with every message.  {@link Entry Entries} are (read-only)
+ * {@link SSDPMessage} views whose headers are synthesized on demand.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(of = { "udn", "endpoints", "server", "bootId", "configId", "searchPort" })
+final class DeviceRecord implements Serializable {
+    private static final long serialVersionUID = 6117413434939734571L;
+
+    private static final int MAXIMUM_ENDPOINTS = 4;
+    private static final int MAXIMUM_HEADER_SETS = 4;
+    private static final Endpoint[] EMPTY_ENDPOINTS = new Endpoint[] { };
+    private static final Entry[] EMPTY_ENTRIES = new Entry[] { };
+    private static final Header[] EMPTY_HEADERS = new Header[] { };
+    private static final Header[][] EMPTY_HEADER_SETS = new Header[][] { };
+    private static final String NOTIFY_LINE = "NOTIFY * HTTP/1.1";
+    private static final String RESPONSE_LINE = "HTTP/1.1 200 OK";
+
+    /*
+     * Headers synthesized from the record and entry fields (in the order
+     * presented).
+     */
+    private static final String[] SYNTHESIZED_ORDER = {
+        CACHE_CONTROL, LOCATION, NT, ST, SERVER, USN,
+        BOOTID_UPNP_ORG, CONFIGID_UPNP_ORG, SEARCHPORT_UPNP_ORG
+    };
+
+    /*
+     * Headers not retained from received messages: Synthesized or, in
+     * the case of DATE, specific to the received message.
+     */
+    private static final Set<String> SYNTHESIZED = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    private static final Set<String> DISCARDED = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        Stream.of(SYNTHESIZED_ORDER).forEach(SYNTHESIZED::add);
+        SYNTHESIZED.add(USER_AGENT);
+        DISCARDED.addAll(SYNTHESIZED);
+        DISCARDED.add(DATE);
+    }
+
+    /**
+     * Static method to get the {@code UDN} of a {@code USN}.
+     *
+     * @param   usn             The {@code USN}.
+     *
+     * @return  The {@code UDN} (as a {@link String}).
+     */
+    public static String udn(URI usn) {
+        String string = usn.toString();
+        int index = string.indexOf("::");
+
+        return (index >= 0) ? string.substring(0, index) : string;
+    }
+
+    /** @serial */ @Getter private final String udn;
+    /** @serial */ private volatile Endpoint[] endpoints = EMPTY_ENDPOINTS;
+    /** @serial */ @Getter private volatile String server = null;
+    /** @serial */ @Getter private volatile int bootId = -1;
+    /** @serial */ @Getter private volatile int configId = -1;
+    /** @serial */ @Getter private volatile int searchPort = -1;
+    /** @serial */ private volatile Entry[] entries = EMPTY_ENTRIES;
+    /** @serial */ private volatile Header[][] headers = EMPTY_HEADER_SETS;
+
+    /**
+     * Constructor.
+     *
+     * @param   udn             The {@code UDN}.
+     */
+    public DeviceRecord(String udn) { this.udn = Objects.requireNonNull(udn); }
+
+    /**
+     * Constructor to restore a record (see {@link SnapshotFile}).
+     *
+     * @param   udn             The {@code UDN}.
+     * @param   location        The {@code LOCATION}.
+     * @param   server          The {@code SERVER}.
+     * @param   bootId          The {@code BOOTID.UPNP.ORG} ({@code -1}
+     *                          if unknown).
+     * @param   configId        The {@code CONFIGID.UPNP.ORG} ({@code -1}
+     *                          if unknown).
+     * @param   searchPort      The {@code SEARCHPORT.UPNP.ORG}
+     *                          ({@code -1} if unknown).
+     */
+    public DeviceRecord(String udn, URI location, String server, int bootId, int configId, int searchPort) {
+        this(udn);
+
+        if (location != null) {
+            this.endpoints = new Endpoint[] { new Endpoint(null, location) };
+        }
+
+        this.server = server;
+        this.bootId = bootId;
+        this.configId = configId;
+        this.searchPort = searchPort;
+    }
+
+    /**
+     * Method to get the device's {@code LOCATION}: The first
+     * {@code LOCATION} (of those currently tracked) received.  A
+     * {@code LOCATION} restored from a snapshot is only reported until
+     * the device is confirmed by a received message.
+     *
+     * @return  The {@code LOCATION} ({@code null} if unknown).
+     */
+    public URI getLocation() {
+        Endpoint[] endpoints = this.endpoints;
+
+        return (endpoints.length > 0) ? endpoints[0].getLocation() : null;
+    }
+
+    /**
+     * Method to get the device's {@link Endpoint}s: The {@code LOCATION}
+     * received from each source address (in the order first received).
+     * A multi-homed device advertises a different {@code LOCATION} on
+     * each of its interfaces.
+     *
+     * @return  The {@link Endpoint}s (must not be modified).
+     */
+    public Endpoint[] endpoints() { return endpoints; }
+
+    /**
+     * Method to get the device's {@code LOCATION} hosts (lower case).
+     *
+     * @return  The {@link Set} of hosts.
+     */
+    public Set<String> hosts() {
+        Endpoint[] endpoints = this.endpoints;
+        Set<String> set = Collections.emptySet();
+
+        if (endpoints.length > 0) {
+            set = new LinkedHashSet<>();
+
+            for (Endpoint endpoint : endpoints) {
+                String host = endpoint.getLocation().getHost();
+
+                if (host != null) {
+                    set.add(host.toLowerCase());
+                }
+            }
+        }
+
+        return set;
+    }
+
+    /**
+     * Method to update the shared values from a {@link SSDPMessage}.
+     * Values missing from {@code message} are retained.  A new
+     * {@code BOOTID.UPNP.ORG} (the device rebooted) or
+     * {@code CONFIGID.UPNP.ORG} (the device's description changed) is
+     * reported as making the device's description stale; any other
+     * change is not.  The {@code LOCATION} is tracked per source address
+     * (see {@link #endpoints()}) so a device advertising on several
+     * interfaces does not appear to change.
+     *
+     * @param   message         The {@link SSDPMessage}.
+     *
+     * @return  {@code true} if the device's description is stale;
+     *          {@code false} otherwise.
+     */
+    public boolean update(SSDPMessage message) {
+        boolean stale = false;
+
+        if (message instanceof Entry) {
+            DeviceRecord record = ((Entry) message).record;
+
+            stale = update(record.server, record.bootId, record.configId, record.searchPort);
+
+            for (Endpoint endpoint : record.endpoints) {
+                update(endpoint);
+            }
+        } else {
+            stale =
+                update(message.getHeaderValue(SERVER, USER_AGENT),
+                       toInt(message, BOOTID_UPNP_ORG, -1),
+                       toInt(message, CONFIGID_UPNP_ORG, -1),
+                       toInt(message, SEARCHPORT_UPNP_ORG, -1));
+            update(message.getLocation(), message);
+        }
+
+        return stale;
+    }
+
+    /**
+     * Method to apply an {@code ssdp:update} {@link SSDPMessage}: The
+     * device's {@code BOOTID.UPNP.ORG} becomes the message's
+     * {@code NEXTBOOTID.UPNP.ORG} and the {@code LOCATION},
+     * {@code CONFIGID.UPNP.ORG}, and {@code SEARCHPORT.UPNP.ORG} are
+     * updated.  Repeated messages (the {@code NEXTBOOTID.UPNP.ORG} has
+     * already been applied) are ignored.
+     *
+     * @param   message         The {@code ssdp:update}
+     *                          {@link SSDPMessage}.
+     *
+     * @return  {@code true} if the device's description is stale;
+     *          {@code false} otherwise.
+     */
+    public boolean advance(SSDPMessage message) {
+        int next = toInt(message, NEXTBOOTID_UPNP_ORG, -1);
+        boolean stale = false;
+
+        if (next >= 0) {
+            stale =
+                update(null, next,
+                       toInt(message, CONFIGID_UPNP_ORG, -1),
+                       toInt(message, SEARCHPORT_UPNP_ORG, -1));
+            update(message.getLocation(), message);
+        }
+
+        return stale;
+    }
+
+    /*
+     * A BOOTID.UPNP.ORG or CONFIGID.UPNP.ORG first learned (the device's
+     * earlier messages did not specify one) does not make the
+     * description stale.  Any different BOOTID.UPNP.ORG (not just a
+     * larger one) is treated as a reboot: Devices that do not persist
+     * the value across power cycles would otherwise be ignored until
+     * their entries expired.  After a reboot, only LOCATIONs received
+     * since are retained.
+     */
+    private boolean update(String server, int bootId, int configId, int searchPort) {
+        boolean stale = false;
+
+        if (server != null && (! server.equals(this.server))) {
+            this.server = server;
+        }
+
+        if (bootId >= 0 && bootId != this.bootId) {
+            if (this.bootId >= 0) {
+                stale = true;
+                endpoints = EMPTY_ENDPOINTS;
+            }
+
+            this.bootId = bootId;
+        }
+
+        if (configId >= 0 && configId != this.configId) {
+            stale |= (this.configId >= 0);
+            this.configId = configId;
+        }
+
+        if (searchPort >= 0 && searchPort != this.searchPort) {
+            this.searchPort = searchPort;
+        }
+
+        return stale;
+    }
+
+    private void update(URI location, SSDPMessage message) {
+        if (location != null) {
+            SocketAddress address = null;
+
+            if (message instanceof SSDPRequest) {
+                address = ((SSDPRequest) message).getSocketAddress();
+            } else if (message instanceof SSDPResponse) {
+                address = ((SSDPResponse) message).getSocketAddress();
+            }
+
+            InetAddress source =
+                (address instanceof InetSocketAddress) ? ((InetSocketAddress) address).getAddress() : null;
+
+            update(new Endpoint(source, location));
+        }
+    }
+
+    /*
+     * At most MAXIMUM_ENDPOINTS are tracked (the oldest is discarded).
+     * Endpoints restored from a snapshot (without a source address) are
+     * discarded once the device is confirmed by a received message: The
+     * device may have since moved (e.g., a new DHCP lease).
+     */
+    private void update(Endpoint endpoint) {
+        Endpoint[] endpoints = this.endpoints;
+        int index = -1;
+
+        if (endpoint.getSource() != null && Stream.of(endpoints).anyMatch(t -> t.getSource() == null)) {
+            endpoints =
+                Stream.of(endpoints)
+                .filter(t -> t.getSource() != null)
+                .toArray(Endpoint[]::new);
+        }
+
+        for (int i = 0; i < endpoints.length; i += 1) {
+            if (Objects.equals(endpoints[i].getSource(), endpoint.getSource())) {
+                index = i;
+                break;
+            }
+        }
+
+        if (index >= 0) {
+            if (! endpoints[index].equals(endpoint)) {
+                endpoints = endpoints.clone();
+                endpoints[index] = endpoint;
+            }
+        } else if (endpoints.length < MAXIMUM_ENDPOINTS) {
+            endpoints = Arrays.copyOf(endpoints, endpoints.length + 1);
+            endpoints[endpoints.length - 1] = endpoint;
+        } else {
+            endpoints = Arrays.copyOfRange(endpoints, 1, endpoints.length + 1);
+            endpoints[endpoints.length - 1] = endpoint;
+        }
+
+        this.endpoints = endpoints;
+    }
+
+    private static int toInt(SSDPMessage message, String name, int value) {
+        String string = message.getHeaderValue(name);
+
+        if (string != null) {
+            try {
+                value = Integer.parseInt(string.trim());
+            } catch (NumberFormatException exception) {
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Method to get {@link.this} record's {@link Entry Entries}.
+     *
+     * @return  The {@link Entry Entries} (must not be modified).
+     */
+    public Entry[] entries() { return entries; }
+
+    /**
+     * Method to test if {@link.this} record has no {@link Entry Entries}.
+     *
+     * @return  {@code true} if empty; {@code false} otherwise.
+     */
+    public boolean isEmpty() { return entries.length == 0; }
+
+    /**
+     * Method to add (or replace the {@link Entry} with the same
+     * {@code USN}) an {@link Entry}.
+     *
+     * @param   entry           The {@link Entry}.
+     */
+    public synchronized void add(Entry entry) {
+        Entry[] entries = this.entries;
+        int index = indexOf(entries, entry.usn);
+
+        if (index >= 0) {
+            entries = entries.clone();
+            entries[index] = entry;
+        } else {
+            entries = Arrays.copyOf(entries, entries.length + 1);
+            entries[entries.length - 1] = entry;
+        }
+
+        this.entries = entries;
+    }
+
+    /**
+     * Method to remove an {@link Entry}.
+     *
+     * @param   entry           The {@link Entry}.
+     *
+     * @return  {@code true} if removed; {@code false} otherwise.
+     */
+    public synchronized boolean remove(Entry entry) {
+        Entry[] entries = this.entries;
+        int index = indexOf(entries, entry.usn);
+        boolean removed = (index >= 0 && entries[index] == entry);
+
+        if (removed) {
+            Entry[] copy = new Entry[entries.length - 1];
+
+            System.arraycopy(entries, 0, copy, 0, index);
+            System.arraycopy(entries, index + 1, copy, index, copy.length - index);
+
+            this.entries = (copy.length > 0) ? copy : EMPTY_ENTRIES;
+        }
+
+        return removed;
+    }
+
+    private static int indexOf(Entry[] entries, URI usn) {
+        int index = -1;
+
+        for (int i = 0; i < entries.length; i += 1) {
+            if (entries[i].usn.equals(usn)) {
+                index = i;
+                break;
+            }
+        }
+
+        return index;
+    }
+
+    /*
+     * The headers of a received message that are not discarded.  A
+     * device sends the same (e.g., HOST, NTS, EXT, and vendor) headers
+     * with every message so the arrays are shared by the record's
+     * entries: The most recent MAXIMUM_HEADER_SETS distinct arrays are
+     * retained and a matching array is reused.  Headers are only copied
+     * (from the received message's buffer) if there is no match.
+     */
+    private Header[] retain(SSDPMessage message) {
+        Header[] received =
+            Stream.of(message.getHeaders())
+            .filter(t -> (! DISCARDED.contains(t.getName())))
+            .toArray(Header[]::new);
+        Header[] retained = EMPTY_HEADERS;
+
+        if (received.length > 0) {
+            synchronized (this) {
+                Header[][] headers = this.headers;
+
+                for (Header[] set : headers) {
+                    if (equals(set, received)) {
+                        retained = set;
+                        break;
+                    }
+                }
+
+                if (retained == EMPTY_HEADERS) {
+                    retained =
+                        Stream.of(received)
+                        .map(t -> new BasicHeader(t.getName(), t.getValue()))
+                        .toArray(Header[]::new);
+
+                    if (headers.length < MAXIMUM_HEADER_SETS) {
+                        headers = Arrays.copyOf(headers, headers.length + 1);
+                    } else {
+                        headers = Arrays.copyOfRange(headers, 1, headers.length + 1);
+                    }
+
+                    headers[headers.length - 1] = retained;
+                    this.headers = headers;
+                }
+            }
+        }
+
+        return retained;
+    }
+
+    private static boolean equals(Header[] left, Header[] right) {
+        boolean equals = (left.length == right.length);
+
+        for (int i = 0; equals && i < left.length; i += 1) {
+            equals &=
+                (left[i].getName().equals(right[i].getName())
+                 && Objects.equals(left[i].getValue(), right[i].getValue()));
+        }
+
+        return equals;
+    }
+
+    /**
+     * {@link DeviceRecord} {@code LOCATION} and the source address it was
+     * received from.
+     */
+    @Value
+    public static class Endpoint implements Serializable {
+        private static final long serialVersionUID = 2284914410467381309L;
+
+        /** @serial */ private InetAddress source;
+        /** @serial */ private URI location;
+    }
+
+    /**
+     * {@link DeviceRecord} {@code USN} entry and (read-only)
+     * {@link SSDPMessage} view.  Entries created from {@code M-SEARCH}
+     * responses present their {@code NT} as an {@code ST} header.
+     */
+    public static final class Entry implements SSDPMessage, Serializable {
+        private static final long serialVersionUID = -1931796532838329617L;
+
+        /** @serial */ private final DeviceRecord record;
+        /** @serial */ private final URI nt;
+        /** @serial */ private final URI usn;
+        /** @serial */ private final long expiration;
+        /** @serial */ private final boolean provisional;
+        /** @serial */ private final boolean response;
+        /** @serial */ private final String line;
+        /** @serial */ private final Header[] headers;
+
+        /**
+         * Constructor for an entry without a received message (see
+         * {@link SnapshotFile}).
+         *
+         * @param   record          The {@link DeviceRecord}.
+         * @param   nt              The {@code NT} (or {@code ST}).
+         * @param   usn             The {@code USN}.
+         * @param   expiration      The expiration time (milliseconds
+         *                          since the UNIX epoch).
+         * @param   provisional     Whether the entry was restored from a
+         *                          snapshot (and not yet confirmed by a
+         *                          received message).
+         */
+        public Entry(DeviceRecord record, URI nt, URI usn, long expiration, boolean provisional) {
+            this(record, nt, usn, expiration, provisional, false, null, EMPTY_HEADERS);
+        }
+
+        /**
+         * Constructor.  The start line and any headers not synthesized
+         * from the record (except {@code DATE}) are retained from
+         * {@code message}.
+         *
+         * @param   record          The {@link DeviceRecord}.
+         * @param   nt              The {@code NT} (or {@code ST}).
+         * @param   usn             The {@code USN}.
+         * @param   provisional     Whether the entry was restored from a
+         *                          snapshot (and not yet confirmed by a
+         *                          received message).
+         * @param   message         The received {@link SSDPMessage}.
+         */
+        public Entry(DeviceRecord record, URI nt, URI usn, boolean provisional, SSDPMessage message) {
+            this(record, nt, usn, message.getExpiration(), provisional,
+                 (message instanceof Entry) ? ((Entry) message).response : (message instanceof SSDPResponse),
+                 line(message), headers(record, message));
+        }
+
+        private Entry(DeviceRecord record, URI nt, URI usn, long expiration, boolean provisional,
+                      boolean response, String line, Header[] headers) {
+            this.record = Objects.requireNonNull(record);
+            this.nt = nt;
+            this.usn = Objects.requireNonNull(usn);
+            this.expiration = expiration;
+            this.provisional = provisional;
+            this.response = response;
+            this.line = line;
+            this.headers = headers;
+        }
+
+        private static String line(SSDPMessage message) {
+            String line = null;
+
+            if (message instanceof Entry) {
+                line = ((Entry) message).line;
+            } else if (message instanceof SSDPRequest) {
+                line = ((SSDPRequest) message).getRequestLine();
+            } else if (message instanceof SSDPResponse) {
+                line = ((SSDPResponse) message).getStatusLine();
+            }
+            /*
+             * Almost every line is one of these (so is not retained per
+             * entry).
+             */
+            if (NOTIFY_LINE.equals(line)) {
+                line = NOTIFY_LINE;
+            } else if (RESPONSE_LINE.equals(line)) {
+                line = RESPONSE_LINE;
+            }
+
+            return line;
+        }
+
+        private static Header[] headers(DeviceRecord record, SSDPMessage message) {
+            Header[] headers = null;
+
+            if (message instanceof Entry && ((Entry) message).record == record) {
+                headers = ((Entry) message).headers;
+            } else {
+                headers = record.retain(message);
+            }
+
+            return headers;
+        }
+
+        /**
+         * Method to get the start line of the received message.
+         *
+         * @return  The start line ({@code null} if the entry was not
+         *          created from a received message).
+         */
+        public String getStartLine() { return line; }
+
+
+        /**
+         * Method to test if {@link.this} entry was restored from a
+         * snapshot and not yet confirmed.
+         *
+         * @return  {@code true} if provisional; {@code false} otherwise.
+         */
+        public boolean isProvisional() { return provisional; }
+
+        /**
+         * Method to get the {@link DeviceRecord}.
+         *
+         * @return  The {@link DeviceRecord}.
+         */
+        public DeviceRecord getRecord() { return record; }
+
+        @Override
+        public URI getNT() { return nt; }
+
+        /**
+         * {@inheritDoc}  Same as {@link #getNT()}.
+         */
+        @Override
+        public URI getST() { return nt; }
+
+        @Override
+        public URI getUSN() { return usn; }
+
+        @Override
+        public URI getLocation() { return record.getLocation(); }
+
+        @Override
+        public long getExpiration() { return expiration; }
+
+        /*
+         * The synthesized header values are computed on each call
+         * (CACHE-CONTROL's max-age decreases and the record's values may
+         * change) and looked up without building a header collection.
+         */
+        private String synthesized(String name) {
+            String value = null;
+
+            if (CACHE_CONTROL.equalsIgnoreCase(name)) {
+                value = MAX_AGE + "=" + Math.max(MILLISECONDS.toSeconds(expiration - System.currentTimeMillis()), 0);
+            } else if (LOCATION.equalsIgnoreCase(name)) {
+                value = toString(record.getLocation());
+            } else if (NT.equalsIgnoreCase(name)) {
+                value = response ? null : toString(nt);
+            } else if (ST.equalsIgnoreCase(name)) {
+                value = response ? toString(nt) : null;
+            } else if (SERVER.equalsIgnoreCase(name)) {
+                value = record.server;
+            } else if (USN.equalsIgnoreCase(name)) {
+                value = usn.toString();
+            } else if (BOOTID_UPNP_ORG.equalsIgnoreCase(name)) {
+                value = toString(record.bootId);
+            } else if (CONFIGID_UPNP_ORG.equalsIgnoreCase(name)) {
+                value = toString(record.configId);
+            } else if (SEARCHPORT_UPNP_ORG.equalsIgnoreCase(name)) {
+                value = toString(record.searchPort);
+            }
+
+            return value;
+        }
+
+        private static String toString(Object value) { return (value != null) ? value.toString() : null; }
+
+        private static String toString(int value) { return (value >= 0) ? String.valueOf(value) : null; }
+
+        private Header synthesize(String name) {
+            String value = synthesized(name);
+
+            return (value != null) ? new BasicHeader(name, value) : null;
+        }
+
+        @Override
+        public ProtocolVersion getVersion() { return HTTP_1_1; }
+
+        @Override
+        public void setVersion(ProtocolVersion version) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public boolean containsHeader(String name) { return countHeaders(name) > 0; }
+
+        @Override
+        public int countHeaders(String name) {
+            int count = 0;
+
+            if (SYNTHESIZED.contains(name)) {
+                count = (synthesized(name) != null) ? 1 : 0;
+            } else {
+                for (Header header : headers) {
+                    if (header.getName().equalsIgnoreCase(name)) {
+                        count += 1;
+                    }
+                }
+            }
+
+            return count;
+        }
+
+        @Override
+        public Header getFirstHeader(String name) {
+            Header header = null;
+
+            if (SYNTHESIZED.contains(name)) {
+                header = synthesize(name);
+            } else {
+                for (int i = 0; header == null && i < headers.length; i += 1) {
+                    if (headers[i].getName().equalsIgnoreCase(name)) {
+                        header = headers[i];
+                    }
+                }
+            }
+
+            return header;
+        }
+
+        @Override
+        public Header getHeader(String name) throws ProtocolException {
+            if (countHeaders(name) > 1) {
+                throw new ProtocolException("multiple '%s' headers found", name);
+            }
+
+            return getFirstHeader(name);
+        }
+
+        @Override
+        public Header[] getHeaders() {
+            List<Header> list = new ArrayList<>(SYNTHESIZED_ORDER.length + headers.length);
+
+            for (String name : SYNTHESIZED_ORDER) {
+                Header header = synthesize(name);
+
+                if (header != null) {
+                    list.add(header);
+                }
+            }
+
+            list.addAll(Arrays.asList(headers));
+
+            return list.toArray(EMPTY_HEADERS);
+        }
+
+        @Override
+        public Header[] getHeaders(String name) {
+            Header[] array = EMPTY_HEADERS;
+
+            if (SYNTHESIZED.contains(name)) {
+                Header header = synthesize(name);
+
+                if (header != null) {
+                    array = new Header[] { header };
+                }
+            } else {
+                array =
+                    Stream.of(headers)
+                    .filter(t -> t.getName().equalsIgnoreCase(name))
+                    .toArray(Header[]::new);
+            }
+
+            return array;
+        }
+
+        @Override
+        public Header getLastHeader(String name) {
+            Header header = null;
+
+            if (SYNTHESIZED.contains(name)) {
+                header = synthesize(name);
+            } else {
+                for (int i = headers.length - 1; header == null && i >= 0; i -= 1) {
+                    if (headers[i].getName().equalsIgnoreCase(name)) {
+                        header = headers[i];
+                    }
+                }
+            }
+
+            return header;
+        }
+
+        @Override
+        public Iterator<Header> headerIterator() { return Arrays.asList(getHeaders()).iterator(); }
+
+        @Override
+        public Iterator<Header> headerIterator(String name) { return Arrays.asList(getHeaders(name)).iterator(); }
+
+        @Override
+        public void addHeader(Header header) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public void addHeader(String name, Object value) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public void setHeader(Header header) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public void setHeader(String name, Object value) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public void setHeaders(Header... headers) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public boolean removeHeader(Header header) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public boolean removeHeaders(String name) { throw new UnsupportedOperationException(); }
+
+        @Override
+        public String toString() {
+            String string =
+                Stream.concat(Stream.of(line), Stream.of(getHeaders()))
+                .filter(Objects::nonNull)
+                .map(Objects::toString)
+                .collect(joining(EOL, EMPTY, EOM));
+
+            return string;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import lombok.ToString;
+
+/**
+ * TinyLFU frequency sketch: A count-min sketch of 4-bit counters (four
+ * hash functions, sixteen counters per {@code long}) estimating how often
+ * a key has been seen recently.  Counters saturate at 15 and every
+ * counter is halved once the number of increments reaches ten times the
+ * table size so the estimates age.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(of = { "additions", "sampleSize" })
+class FrequencySketch {
+    private static final long[] SEEDS = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+    };
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    /**
+     * Sole constructor.
+     *
+     * @param   capacity        The expected number of distinct keys.
+     */
+    public FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.min(Math.max(capacity, 64), 1 << 24) * 2 - 1);
+
+        this.table = new long[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * size;
+    }
+
+    /**
+     * Method to get the estimated frequency of a key.
+     *
+     * @param   hash            The key's (64-bit) hash.
+     *
+     * @return  The estimated frequency (0 to 15).
+     */
+    public synchronized int frequency(long hash) {
+        int frequency = Integer.MAX_VALUE;
+
+        for (int i = 0; i < SEEDS.length; i += 1) {
+            long h = spread(hash, i);
+            int shift = ((int) (h >>> 60)) << 2;
+
+            frequency = Math.min(frequency, (int) ((table[index(h)] >>> shift) & 0xFL));
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Method to record an occurrence of a key.
+     *
+     * @param   hash            The key's (64-bit) hash.
+     */
+    public synchronized void increment(long hash) {
+        boolean added = false;
+
+        for (int i = 0; i < SEEDS.length; i += 1) {
+            long h = spread(hash, i);
+            int index = index(h);
+            int shift = ((int) (h >>> 60)) << 2;
+
+            if (((table[index] >>> shift) & 0xFL) != 0xFL) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+
+        if (added) {
+            additions += 1;
+
+            if (additions >= sampleSize) {
+                for (int i = 0; i < table.length; i += 1) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+
+                additions /= 2;
+            }
+        }
+    }
+
+    private static long spread(long hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[(i + 1) % SEEDS.length];
+
+        return h ^ (h >>> 32);
+    }
+
+    private int index(long h) { return ((int) (h ^ (h >>> 29))) & mask; }
+}
@@ -18,65 +18,513 @@ package ball.upnp.ssdp;
  * limitations under the License.
  * ##########################################################################
  */
+import java.io.File;
+import java.io.IOException;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.ToString;
+import lombok.Value;
 import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.protocol.HttpDateGenerator;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.apache.hc.core5.http.HttpStatus.SC_OK;
 
 /**
  * SSDP discovery cache implementation.
  *
+ * <p>
+ * If a {@link #setProxyScope(Predicate) proxy scope} is configured, the
+ * cache answers multicast {@code M-SEARCH} requests received by the
+ * {@link SSDPDiscoveryService} with its still-valid entries in scope on
+ * behalf of the devices that advertised them.  Proxied responses carry
+ * the remaining {@code max-age}.  For example, to answer for every
+ * cached root device:
+ * </p>
+ *
+ * {@code cache.setProxyScope(t -> RootDevice.NT.equals(t.getNT()));}
+ *
+ * <p>
+ * Entries are stored compactly: The values shared by every {@code USN} of
+ * a device ({@code LOCATION}, {@code SERVER}, {@code BOOTID.UPNP.ORG},
+ * etc.) are stored once per {@code UDN} and each {@code USN} only keeps
+ * its {@code NT} and expiration.  The {@link SSDPMessage}s returned by
+ * the {@link java.util.Map} methods are read-only views synthesized from
+ * those records.
+ * </p>
+ *
+ * <p>
+ * Secondary indexes by {@code NT} family (see
+ * {@link SSDPTarget#getFamily()}), {@code UDN}, and {@code LOCATION} host
+ * are maintained so {@link #search(URI)}, {@link #getByUDN(URI)}, and
+ * {@link #getByLocationHost(String)} run in time proportional to the
+ * result.
+ * </p>
+ *
+ * <p>
+ * {@link ChangeListener}s are notified of devices being
+ * {@link Change.Type#ADDED added}, {@link Change.Type#REFRESHED
+ * refreshed}, {@link Change.Type#UPDATED updated},
+ * {@link Change.Type#RECONFIGURED reconfigured},
+ * {@link Change.Type#REMOVED removed}, and
+ * {@link Change.Type#EXPIRED expired}.  Changes are coalesced per
+ * {@code UDN} over the {@link #setCoalescingWindow(long) coalescing
+ * window} (so the burst of {@code ssdp:alive} messages from a device
+ * coming online is reported as a single {@link Change.Type#ADDED} change)
+ * and delivered in batches on the {@link SSDPDiscoveryService}'s worker
+ * threads.  A batch is not delivered until the previous one has been
+ * consumed; in the meantime changes continue to coalesce so at most one
+ * change per device is ever pending.  (If the worker rejects a batch, it
+ * is retried after another coalescing window.)
+ * </p>
+ *
+ * <p>
+ * The {@code BOOTID.UPNP.ORG} and {@code CONFIGID.UPNP.ORG} of each
+ * device are tracked (and {@code ssdp:update} messages are applied): A
+ * device that reboots or changes its configuration is reported as
+ * {@link Change.Type#RECONFIGURED} which is the signal that any cached
+ * description must be re-fetched.  A re-announcement with the same values
+ * only extends the entry's expiration and is reported as
+ * {@link Change.Type#REFRESHED}.  The {@code LOCATION} is tracked per
+ * source address: A multi-homed device advertises a different
+ * {@code LOCATION} on each interface and is indexed under every
+ * {@code LOCATION} host.
+ * </p>
+ *
+ * <p>
+ * If a {@link #setSnapshotFile(File) snapshot file} is configured, the
+ * unexpired entries are written to it every
+ * {@link #setSnapshotInterval(int) snapshot interval} (and when the
+ * cache is unregistered) and are restored when the cache is registered
+ * so discovery results are available immediately after a restart.
+ * Restored entries are {@link #isProvisional(URI) provisional} (and not
+ * proxied) until confirmed by a received message.
+ * </p>
+ *
+ * <p>
+ * The number of entries may be bounded with
+ * {@link #setMaximumSize(int)}: Once the limit is reached, a new
+ * {@code USN} is only admitted (evicting another) if its device has been
+ * seen more frequently than the victim's device (as frequently if the
+ * device is already cached; always if the victim belongs to the same
+ * device) and is otherwise rejected.  Entries are protected from eviction once refreshed (the
+ * victim is the least recently used entry that has never been refreshed
+ * if there is one) and frequencies are per {@code UDN} (estimated with
+ * an aging TinyLFU count-min sketch) so long-lived, frequently refreshed
+ * devices are favored over a flood of one-off (e.g., spoofed)
+ * {@code USN}s.  The limit is approximate: The size check and the
+ * insertion are not atomic so concurrent {@link #put(URI,SSDPMessage)
+ * puts} of new {@code USN}s may briefly exceed it (by at most the
+ * number of concurrent writers).
+ * </p>
+ *
+ * <p>
+ * Entries are evicted at their expiration: Every {@link #put(URI,SSDPMessage)
+ * put} adds a deadline to a heap and a single timer task is scheduled
+ * (on the registered {@link SSDPDiscoveryService}) for the earliest
+ * deadline.  Deadlines of entries that have since been replaced or
+ * removed are discarded when they reach the head of the heap.
+ * </p>
+ *
+ * <p>
+ * Entries are refreshed before they expire: Every
+ * {@link #setRefreshPeriod(int) refresh period} the entries within the
+ * {@link #setRefreshLead(int) refresh lead} of their expiration that have
+ * not been re-announced are collected and a targeted {@code M-SEARCH}
+ * (with a short {@link #setRefreshMX(int) MX}) is sent for each distinct
+ * {@code NT} (falling back to a single {@code ssdp:all} search if there
+ * are more than {@link #setRefreshTargets(int) refresh targets}).  The
+ * first search for an entry whose device advertised a
+ * {@code SEARCHPORT.UPNP.ORG} is instead sent unicast to that port on
+ * the address the device's messages were received from (provided the
+ * {@code LOCATION} host is that address; one search per device: its
+ * {@code NT} if only one entry is due and {@code ssdp:all} otherwise);
+ * multicast is only used if the device does not answer.  An
+ * entry still unanswered after {@link #setRefreshAttempts(int) refresh
+ * attempts} searches is expired early.  (Entries are not refreshed if
+ * the {@link SSDPDiscoveryService} cannot send.)  The periodic {@code ssdp:all}
+ * sweep adapts to the observed churn (devices added, reconfigured,
+ * removed, or expired): The interval is halved (down to the
+ * {@link #setMinimumSweepInterval(int) minimum}) if more than 5% of the
+ * devices changed since the last sweep and is doubled (up to the
+ * {@link #setMaximumSweepInterval(int) maximum}) if none did.
+ * </p>
+ *
+ * {@bean.info}
+ *
  * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
  */
 @NoArgsConstructor
 public class SSDPDiscoveryCache extends ConcurrentSkipListMap<URI,SSDPMessage> implements SSDPDiscoveryService.Listener {
     private static final long serialVersionUID = 2743071044637511801L;
 
+    /** @serial */ private final LongAdder count = new LongAdder();
+    /** @serial */ private final ConcurrentHashMap<String,DeviceRecord> records = new ConcurrentHashMap<>();
+    /** @serial */ private final ConcurrentHashMap<String,Set<DeviceRecord.Entry>> families = new ConcurrentHashMap<>();
+    /** @serial */ private final ConcurrentHashMap<String,Set<DeviceRecord>> hosts = new ConcurrentHashMap<>();
+    /** @serial */ private final PriorityQueue<Deadline> deadlines = new PriorityQueue<>();
+    /** @serial */ private volatile SSDPDiscoveryService service = null;
     /** @serial */ private ScheduledFuture<?> expirer = null;
-    /** @serial */ private ScheduledFuture<?> msearch = null;
+    /** @serial */ private long next = Long.MAX_VALUE;
+    /** @serial */ private final PriorityQueue<Refresh> refreshes = new PriorityQueue<>();
+    /** @serial */ private ScheduledFuture<?> planner = null;
+    /** @serial */ @Getter @Setter
+    private int refreshPeriod = 10;
+    /** @serial */ @Getter @Setter
+    private int refreshLead = 60;
+    /** @serial */ @Getter @Setter
+    private int refreshMX = 2;
+    /** @serial */ @Getter @Setter
+    private int refreshTargets = 8;
+    /** @serial */ @Getter @Setter
+    private int refreshAttempts = 2;
+    /** @serial */ private final LongAdder targeted = new LongAdder();
+    /** @serial */ private final LongAdder unicast = new LongAdder();
+    /** @serial */ private final LongAdder unanswered = new LongAdder();
+    /** @serial */ private ScheduledFuture<?> sweep = null;
+    /** @serial */ @Getter @Setter
+    private int minimumSweepInterval = 60;
+    /** @serial */ @Getter @Setter
+    private int maximumSweepInterval = 1800;
+    /** @serial */ @Getter
+    private volatile int sweepInterval = 300;
+    /** @serial */ private final LongAdder sweeps = new LongAdder();
+    /** @serial */ private final LongAdder churn = new LongAdder();
     /** @serial */ private final List<SSDPDiscoveryService.Listener> listeners =
         Arrays.asList(new NOTIFY(), new MSEARCH());
+    /** @serial */ private final PROXY proxy = new PROXY();
+    /** @serial */ @Getter @Setter
+    private Predicate<? super SSDPMessage> proxyScope = null;
+    /** @serial */ @Getter @Setter
+    private int proxyMinimumMaxAge = 30;
+    /** @serial */ private final LongAdder proxied = new LongAdder();
+    /** @serial */ private final CopyOnWriteArrayList<ChangeListener> changeListeners = new CopyOnWriteArrayList<>();
+    /** @serial */ private final LinkedHashMap<String,Change.Type> changes = new LinkedHashMap<>();
+    /** @serial */ private Future<?> flusher = null;
+    /** @serial */ @Getter @Setter
+    private long coalescingWindow = 1000;
+    /** @serial */ @Getter @Setter
+    private File snapshotFile = null;
+    /** @serial */ @Getter @Setter
+    private int snapshotInterval = 60;
+    /** @serial */ private ScheduledFuture<?> snapshot = null;
+    /** @serial */ private volatile AdmissionPolicy policy = null;
+    /** @serial */ private final LongAdder admitted = new LongAdder();
+    /** @serial */ private final LongAdder evicted = new LongAdder();
+    /** @serial */ private final LongAdder rejected = new LongAdder();
 
     @Override
     public void register(SSDPDiscoveryService service) {
-        if (expirer == null) {
-            expirer = service.scheduleAtFixedRate(() -> expirer(service), 0, 60, SECONDS);
+        if (snapshot == null && getSnapshotFile() != null) {
+            try {
+                loadSnapshot();
+            } catch (IOException exception) {
+            }
+
+            snapshot =
+                service.scheduleWithFixedDelay(() -> snapshot(), getSnapshotInterval(), getSnapshotInterval(), SECONDS);
         }
 
-        if (msearch == null) {
-            msearch = service.scheduleAtFixedRate(() -> msearch(service), 0, 300, SECONDS);
+        synchronized (deadlines) {
+            this.service = service;
+
+            Deadline head = deadlines.peek();
+
+            if (head != null) {
+                schedule(head.getExpiration());
+            }
+        }
+
+        synchronized (sweeps) {
+            if (sweep == null) {
+                sweep = service.schedule(() -> sweep(service), 0, SECONDS);
+            }
+        }
+
+        if (planner == null && service.getRole().isUnicast()) {
+            planner =
+                service.scheduleWithFixedDelay(() -> refresh(service), getRefreshPeriod(), getRefreshPeriod(), SECONDS);
         }
 
         listeners.stream().forEach(t -> service.addListener(t));
+        service.addResponder(proxy);
+
+        synchronized (changes) {
+            if (flusher != null) {
+                flusher.cancel(false);
+                flusher = null;
+            }
+
+            if (! changes.isEmpty()) {
+                flush(service);
+            }
+        }
     }
 
     @Override
     public void unregister(SSDPDiscoveryService service) {
-        ScheduledFuture<?> expirer = this.expirer;
+        synchronized (deadlines) {
+            if (expirer != null) {
+                expirer.cancel(false);
+                expirer = null;
+            }
 
-        if (expirer != null) {
-            expirer.cancel(true);
+            next = Long.MAX_VALUE;
+            this.service = null;
         }
 
-        ScheduledFuture<?> msearch = this.msearch;
+        synchronized (sweeps) {
+            if (sweep != null) {
+                sweep.cancel(true);
+                sweep = null;
+            }
+        }
 
-        if (msearch != null) {
-            msearch.cancel(true);
+        ScheduledFuture<?> planner = this.planner;
+
+        if (planner != null) {
+            planner.cancel(true);
+            this.planner = null;
+        }
+
+        ScheduledFuture<?> snapshot = this.snapshot;
+
+        if (snapshot != null) {
+            snapshot.cancel(false);
+            this.snapshot = null;
+            snapshot();
+        }
+
+        service.removeResponder(proxy);
+
+        synchronized (changes) {
+            if (flusher != null) {
+                flusher.cancel(false);
+                flusher = null;
+            }
         }
     }
 
+    /**
+     * Method to add a {@link ChangeListener}.
+     *
+     * @param   listener        The {@link ChangeListener}.
+     *
+     * @return  {@link.this}
+     */
+    public SSDPDiscoveryCache addChangeListener(ChangeListener listener) {
+        changeListeners.addIfAbsent(listener);
+
+        return this;
+    }
+
+    /**
+     * Method to remove a {@link ChangeListener}.
+     *
+     * @param   listener        The {@link ChangeListener}.
+     *
+     * @return  {@link.this}
+     */
+    public SSDPDiscoveryCache removeChangeListener(ChangeListener listener) {
+        changeListeners.remove(listener);
+
+        return this;
+    }
+
+    /**
+     * Method to restore provisional entries from the
+     * {@link #getSnapshotFile() snapshot file}.  Entries that have
+     * expired or are already present are skipped.
+     *
+     * @return  The number of entries restored.
+     *
+     * @throws  IOException     If the snapshot file cannot be read.
+     */
+    public int loadSnapshot() throws IOException {
+        int count = 0;
+        File file = getSnapshotFile();
+
+        if (file != null && file.isFile()) {
+            for (DeviceRecord.Entry entry : SnapshotFile.read(file, now())) {
+                if (put(entry.getUSN(), entry, true, Condition.ABSENT, null) == null) {
+                    count += 1;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Method to write the unexpired entries to the
+     * {@link #getSnapshotFile() snapshot file}.
+     *
+     * @throws  IOException     If the snapshot file cannot be written.
+     */
+    public void saveSnapshot() throws IOException {
+        File file = getSnapshotFile();
+
+        if (file != null) {
+            SnapshotFile.write(file, records.values(), now());
+        }
+    }
+
+    private void snapshot() {
+        try {
+            saveSnapshot();
+        } catch (IOException exception) {
+        }
+    }
+
+    /**
+     * Method to test if the entry for a {@code USN} was restored from a
+     * snapshot and has not yet been confirmed by a received message.
+     *
+     * @param   usn             The {@code USN}.
+     *
+     * @return  {@code true} if provisional; {@code false} otherwise.
+     */
+    public boolean isProvisional(URI usn) {
+        SSDPMessage message = get(usn);
+
+        return ((message instanceof DeviceRecord.Entry)
+                && ((DeviceRecord.Entry) message).isProvisional());
+    }
+
+    /**
+     * Method to get the number of {@code M-SEARCH} responses sent on
+     * behalf of cached devices.
+     *
+     * @return  The proxied response count.
+     */
+    public long getProxiedCount() { return proxied.sum(); }
+
+    /**
+     * Method to set the maximum number of entries.  Entries already
+     * present are retained even if they exceed the limit (but are
+     * candidates for eviction).  The limit is approximate under
+     * concurrent writes (see the class description).
+     *
+     * @param   maximumSize     The maximum number of entries
+     *                          ({@link Integer#MAX_VALUE} for no limit).
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize=" + maximumSize);
+        }
+
+        AdmissionPolicy policy = null;
+
+        if (maximumSize < Integer.MAX_VALUE) {
+            policy = new AdmissionPolicy(maximumSize);
+
+            for (URI usn : keySet()) {
+                policy.touch(usn, false);
+            }
+        }
+
+        this.policy = policy;
+    }
+
+    /**
+     * Method to get the maximum number of entries.
+     *
+     * @return  The maximum number of entries
+     *          ({@link Integer#MAX_VALUE} if there is no limit).
+     */
+    public int getMaximumSize() {
+        AdmissionPolicy policy = this.policy;
+
+        return (policy != null) ? policy.getMaximumSize() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Method to get the number of new entries admitted (by evicting
+     * another) while the cache was at its
+     * {@link #setMaximumSize(int) maximum size}.
+     *
+     * @return  The admitted count.
+     */
+    public long getAdmittedCount() { return admitted.sum(); }
+
+    /**
+     * Method to get the number of entries evicted to admit new entries.
+     *
+     * @return  The evicted count.
+     */
+    public long getEvictedCount() { return evicted.sum(); }
+
+    /**
+     * Method to get the number of new entries rejected because the cache
+     * was at its {@link #setMaximumSize(int) maximum size} and the new
+     * entry's device was seen less frequently than the eviction victim's.
+     *
+     * @return  The rejected count.
+     */
+    public long getRejectedCount() { return rejected.sum(); }
+
+    /**
+     * Method to get the number of targeted (refresh) {@code M-SEARCH}
+     * requests sent.
+     *
+     * @return  The targeted search count.
+     */
+    public long getTargetedSearchCount() { return targeted.sum(); }
+
+    /**
+     * Method to get the number of unicast (refresh) {@code M-SEARCH}
+     * requests sent.
+     *
+     * @return  The unicast search count.
+     */
+    public long getUnicastSearchCount() { return unicast.sum(); }
+
+    /**
+     * Method to get the number of {@code ssdp:all} {@code M-SEARCH}
+     * requests sent.
+     *
+     * @return  The sweep count.
+     */
+    public long getSweepCount() { return sweeps.sum(); }
+
+    /**
+     * Method to get the number of entries expired early because they
+     * did not answer targeted refresh searches.
+     *
+     * @return  The unanswered count.
+     */
+    public long getUnansweredCount() { return unanswered.sum(); }
+
     @Override
     public void sendEvent(SSDPDiscoveryService service, DatagramSocket socket, SSDPMessage message) {
     }
@@ -85,25 +533,858 @@ public class SSDPDiscoveryCache extends ConcurrentSkipListMap<URI,SSDPMessage> i
     public void receiveEvent(SSDPDiscoveryService service, DatagramSocket socket, SSDPMessage message) {
     }
 
-    private void expirer(SSDPDiscoveryService service) {
+    /**
+     * {@inheritDoc}  {@code message} is stored as a compact
+     * {@link DeviceRecord.Entry} and the view is what is subsequently
+     * returned by {@link #get(Object)}, {@link #values()}, etc.  If the
+     * cache is at its {@link #setMaximumSize(int) maximum size}, a new
+     * {@code usn} may be rejected (in which case nothing is stored and
+     * {@code null} is returned).
+     */
+    @Override
+    public SSDPMessage put(URI usn, SSDPMessage message) {
+        return put(usn, message, false, Condition.ALWAYS, null);
+    }
+
+    /**
+     * {@inheritDoc}  Stored as if by {@link #put(URI,SSDPMessage)}.
+     */
+    @Override
+    public SSDPMessage putIfAbsent(URI usn, SSDPMessage message) {
+        return put(usn, message, false, Condition.ABSENT, null);
+    }
+
+    /**
+     * {@inheritDoc}  Stored as if by {@link #put(URI,SSDPMessage)}.
+     */
+    @Override
+    public SSDPMessage replace(URI usn, SSDPMessage message) {
+        return put(usn, Objects.requireNonNull(message), false, Condition.PRESENT, null);
+    }
+
+    /**
+     * {@inheritDoc}  Stored as if by {@link #put(URI,SSDPMessage)}.
+     */
+    @Override
+    public boolean replace(URI usn, SSDPMessage expected, SSDPMessage message) {
+        return put(usn, Objects.requireNonNull(message), false, Condition.EQUAL, Objects.requireNonNull(expected)) != null;
+    }
+
+    /**
+     * {@inheritDoc}  Implemented with {@link #get(Object)},
+     * {@link #putIfAbsent(URI,SSDPMessage)}, and
+     * {@link #replace(URI,SSDPMessage,SSDPMessage)} (retried if another
+     * thread changed the mapping) so the result is stored as if by
+     * {@link #put(URI,SSDPMessage)}.  Returns the stored view.
+     */
+    @Override
+    public SSDPMessage computeIfAbsent(URI usn, Function<? super URI,? extends SSDPMessage> function) {
+        Objects.requireNonNull(function);
+
+        SSDPMessage value = get(usn);
+
+        if (value == null) {
+            SSDPMessage computed = function.apply(usn);
+
+            if (computed != null) {
+                value = putIfAbsent(usn, computed);
+
+                if (value == null) {
+                    value = get(usn);
+                }
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * {@inheritDoc}  See {@link #computeIfAbsent(URI,Function)}.
+     */
+    @Override
+    public SSDPMessage computeIfPresent(URI usn,
+                                       BiFunction<? super URI,? super SSDPMessage,? extends SSDPMessage> function) {
+        Objects.requireNonNull(function);
+
+        for (;;) {
+            SSDPMessage value = get(usn);
+
+            if (value == null) {
+                return null;
+            }
+
+            SSDPMessage computed = function.apply(usn, value);
+
+            if (computed != null) {
+                if (replace(usn, value, computed)) {
+                    return get(usn);
+                }
+            } else if (remove(usn, value)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}  See {@link #computeIfAbsent(URI,Function)}.
+     */
+    @Override
+    public SSDPMessage compute(URI usn, BiFunction<? super URI,? super SSDPMessage,? extends SSDPMessage> function) {
+        Objects.requireNonNull(function);
+
+        for (;;) {
+            SSDPMessage value = get(usn);
+            SSDPMessage computed = function.apply(usn, value);
+
+            if (computed != null) {
+                if ((value != null) ? replace(usn, value, computed) : (putIfAbsent(usn, computed) == null)) {
+                    return get(usn);
+                }
+            } else if (value == null || remove(usn, value)) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}  See {@link #computeIfAbsent(URI,Function)}.
+     */
+    @Override
+    public SSDPMessage merge(URI usn, SSDPMessage message,
+                             BiFunction<? super SSDPMessage,? super SSDPMessage,? extends SSDPMessage> function) {
+        Objects.requireNonNull(message);
+        Objects.requireNonNull(function);
+
+        for (;;) {
+            SSDPMessage value = get(usn);
+
+            if (value == null) {
+                if (putIfAbsent(usn, message) == null) {
+                    return get(usn);
+                }
+            } else {
+                SSDPMessage computed = function.apply(value, message);
+
+                if (computed != null) {
+                    if (replace(usn, value, computed)) {
+                        return get(usn);
+                    }
+                } else if (remove(usn, value)) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}  See {@link #computeIfAbsent(URI,Function)}.
+     */
+    @Override
+    public void replaceAll(BiFunction<? super URI,? super SSDPMessage,? extends SSDPMessage> function) {
+        Objects.requireNonNull(function);
+
+        keySet().forEach(t -> computeIfPresent(t, (k, v) -> Objects.requireNonNull(function.apply(k, v))));
+    }
+
+    @Override
+    public Map.Entry<URI,SSDPMessage> pollFirstEntry() { return poll(this::firstEntry); }
+
+    @Override
+    public Map.Entry<URI,SSDPMessage> pollLastEntry() { return poll(this::lastEntry); }
+
+    private Map.Entry<URI,SSDPMessage> poll(Supplier<Map.Entry<URI,SSDPMessage>> supplier) {
+        for (;;) {
+            Map.Entry<URI,SSDPMessage> entry = supplier.get();
+
+            if (entry == null || remove(entry.getKey(), entry.getValue())) {
+                return entry;
+            }
+        }
+    }
+
+    /*
+     * put() variants: The condition is applied atomically to the mapping
+     * while the record is locked.
+     */
+    private enum Condition { ALWAYS, ABSENT, PRESENT, EQUAL }
+
+    /*
+     * A provisional entry never replaces an existing entry: If present,
+     * the existing entry is returned and nothing is changed.  Nor does a
+     * provisional entry overwrite the (more recent) shared values of a
+     * device already present.  Returns what the corresponding Map method
+     * would (for EQUAL, the replaced value or null if not replaced).
+     */
+    private SSDPMessage put(URI usn, SSDPMessage message, boolean provisional,
+                            Condition condition, SSDPMessage expected) {
+        String udn = DeviceRecord.udn(usn);
+        AdmissionPolicy policy = this.policy;
+
+        if (provisional) {
+            condition = Condition.ABSENT;
+        }
+
+        if (policy != null && (condition == Condition.ALWAYS || condition == Condition.ABSENT)) {
+            policy.increment(udn);
+
+            if (count() >= policy.getMaximumSize() && (! containsKey(usn)) && (! admit(policy, udn))) {
+                rejected.increment();
+                return null;
+            }
+        }
+        DeviceRecord.Entry entry = null;
+        SSDPMessage previous = null;
+        Change.Type type = null;
+
+        for (;;) {
+            DeviceRecord record = records.computeIfAbsent(udn, DeviceRecord::new);
+
+            synchronized (record) {
+                if (records.get(udn) != record) {
+                    continue;
+                }
+
+                boolean added = record.isEmpty();
+
+                URI nt = (message instanceof SSDPResponse) ? message.getST() : message.getNT();
+
+                if (nt != null) {
+                    nt = SSDPTarget.of(nt).toURI();
+                }
+
+                entry = new DeviceRecord.Entry(record, nt, usn, provisional, message);
+
+                boolean success = true;
+
+                switch (condition) {
+                case ABSENT:
+                    previous = super.putIfAbsent(usn, entry);
+                    success = (previous == null);
+
+                    if (success) {
+                        count.increment();
+                    }
+                    break;
+
+                case PRESENT:
+                    previous = super.replace(usn, entry);
+                    success = (previous != null);
+                    break;
+
+                case EQUAL:
+                    success = super.replace(usn, expected, entry);
+                    previous = success ? expected : null;
+                    break;
+
+                default:
+                    previous = super.put(usn, entry);
+
+                    if (previous == null) {
+                        count.increment();
+                    }
+                    break;
+                }
+
+                if (! success) {
+                    if (record.isEmpty()) {
+                        records.remove(udn, record);
+                    }
+
+                    return previous;
+                }
+
+                Set<String> hosts = record.hosts();
+                boolean stale = (added || (! provisional)) && record.update(message);
+
+                record.add(entry);
+
+                if (previous instanceof DeviceRecord.Entry) {
+                    unindex((DeviceRecord.Entry) previous);
+                }
+
+                index(entry);
+                reindex(hosts, record);
+
+                if (added) {
+                    type = Change.Type.ADDED;
+                } else if (stale) {
+                    type = Change.Type.RECONFIGURED;
+                } else if (previous == null) {
+                    type = Change.Type.UPDATED;
+                } else {
+                    type = Change.Type.REFRESHED;
+                }
+                break;
+            }
+        }
+
+        fire(udn, type);
+
+        if (policy != null) {
+            policy.touch(usn, previous != null);
+        }
+
+        synchronized (deadlines) {
+            long expiration = entry.getExpiration();
+
+            deadlines.add(new Deadline(expiration, usn, entry));
+
+            if (expiration < next) {
+                schedule(expiration);
+            }
+        }
+
+        synchronized (refreshes) {
+            refreshes.add(new Refresh(entry.getExpiration() - SECONDS.toMillis(getRefreshLead()), usn, entry, 0));
+        }
+
+        return previous;
+    }
+
+    /*
+     * The victim is removed outside the policy lock (removal takes the
+     * record lock).
+     */
+    private boolean admit(AdmissionPolicy policy, String udn) {
+        URI victim = policy.victim(this::containsKey);
+        boolean admit = policy.admit(udn, records.containsKey(udn), victim);
+
+        if (admit && victim != null) {
+            SSDPMessage value = get(victim);
+
+            if (value != null && remove(victim, value, Change.Type.REMOVED)) {
+                evicted.increment();
+            }
+
+            admitted.increment();
+        }
+
+        return admit;
+    }
+
+    @Override
+    public SSDPMessage remove(Object key) {
+        SSDPMessage value = super.remove(key);
+
+        if (value != null) {
+            count.decrement();
+        }
+
+        detach(value, Change.Type.REMOVED);
+
+        return value;
+    }
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        return remove(key, value, Change.Type.REMOVED);
+    }
+
+    private boolean remove(Object key, Object value, Change.Type type) {
+        boolean removed = super.remove(key, value);
+
+        if (removed) {
+            count.decrement();
+            detach(value, type);
+        }
+
+        return removed;
+    }
+
+    /*
+     * Entries are removed one at a time so the count remains exact if
+     * there are concurrent puts.
+     */
+    @Override
+    public void clear() {
+        for (URI usn : keySet()) {
+            if (super.remove(usn) != null) {
+                count.decrement();
+            }
+        }
+
+        records.clear();
+        families.clear();
+        hosts.clear();
+
+        AdmissionPolicy policy = this.policy;
+
+        if (policy != null) {
+            policy.clear();
+        }
+    }
+
+    /*
+     * ConcurrentSkipListMap.size() traverses the map: The number of
+     * entries is counted as they are added and removed instead.
+     */
+    private int count() { return (int) Math.min(count.sum(), Integer.MAX_VALUE); }
+
+    private static String family(DeviceRecord.Entry entry) {
+        URI nt = entry.getNT();
+
+        return (nt != null) ? SSDPTarget.of(nt).getFamily() : null;
+    }
+
+    /*
+     * Called with the record lock held.
+     */
+    private void reindex(Set<String> hosts, DeviceRecord record) {
+        Set<String> current = record.hosts();
+
+        if (! hosts.equals(current)) {
+            hosts.stream().filter(t -> (! current.contains(t))).forEach(t -> unindex(t, record));
+            current.stream().filter(t -> (! hosts.contains(t))).forEach(t -> index(t, record));
+        }
+    }
+
+    private void index(DeviceRecord.Entry entry) {
+        String family = family(entry);
+
+        if (family != null) {
+            families.compute(family, (k, v) -> add((v != null) ? v : ConcurrentHashMap.newKeySet(), entry));
+        }
+    }
+
+    /*
+     * Index sets are only modified inside compute() so a set cannot be
+     * removed (when emptied) while another thread is adding to it.
+     */
+    private static <T> Set<T> add(Set<T> set, T element) {
+        set.add(element);
+
+        return set;
+    }
+
+    private void unindex(DeviceRecord.Entry entry) {
+        String family = family(entry);
+
+        if (family != null) {
+            families.computeIfPresent(family, (k, v) -> (v.remove(entry) && v.isEmpty()) ? null : v);
+        }
+    }
+
+    private void index(String host, DeviceRecord record) {
+        if (host != null) {
+            hosts.compute(host, (k, v) -> add((v != null) ? v : ConcurrentHashMap.newKeySet(), record));
+        }
+    }
+
+    private void unindex(String host, DeviceRecord record) {
+        if (host != null) {
+            hosts.computeIfPresent(host, (k, v) -> (v.remove(record) && v.isEmpty()) ? null : v);
+        }
+    }
+
+    /**
+     * Method to get the entries whose {@code NT} satisfies an {@code ST}
+     * (with {@link ball.upnp.SSDP#matches(URI,URI)} semantics: e.g.,
+     * {@code urn:schemas-upnp-org:device:MediaServer:2} finds
+     * {@code MediaServer} devices of version 2 and later).
+     *
+     * @param   st              The {@code ST} {@link URI}.
+     *
+     * @return  The {@link List} of matching {@link SSDPMessage}s.
+     */
+    public List<SSDPMessage> search(URI st) {
+        SSDPTarget target = SSDPTarget.of(st);
+        List<SSDPMessage> list = null;
+
+        if (target.isAll()) {
+            list = new ArrayList<>(values());
+        } else {
+            list = new ArrayList<>();
+
+            Set<DeviceRecord.Entry> set = families.get(target.getFamily());
+
+            if (set != null) {
+                for (DeviceRecord.Entry entry : set) {
+                    if (target.matches(SSDPTarget.of(entry.getNT()))) {
+                        list.add(entry);
+                    }
+                }
+            }
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Method to get the entries (root device, embedded devices, and
+     * services) advertised by a {@code UDN}.
+     *
+     * @param   udn             The {@code UDN} {@link URI} (e.g.,
+     *                          {@code uuid:...}).
+     *
+     * @return  The {@link List} of {@link SSDPMessage}s.
+     */
+    public List<SSDPMessage> getByUDN(URI udn) {
+        DeviceRecord record = records.get(DeviceRecord.udn(udn));
+
+        List<SSDPMessage> list = Collections.emptyList();
+
+        if (record != null) {
+            list = Collections.unmodifiableList(Arrays.asList(record.entries()));
+        }
+
+        return list;
+    }
+
+    /**
+     * Method to get the entries of every device with a {@code LOCATION}
+     * on {@code host}.
+     *
+     * @param   host            The host name or address (as it appears
+     *                          in the {@code LOCATION} {@link URI}).
+     *
+     * @return  The {@link List} of {@link SSDPMessage}s.
+     */
+    public List<SSDPMessage> getByLocationHost(String host) {
+        List<SSDPMessage> list = new ArrayList<>();
+        Set<DeviceRecord> set = hosts.get(host.toLowerCase());
+
+        if (set != null) {
+            for (DeviceRecord record : set) {
+                list.addAll(Arrays.asList(record.entries()));
+            }
+        }
+
+        return Collections.unmodifiableList(list);
+    }
+
+    /*
+     * type is the change reported if the device's last entry is removed;
+     * otherwise the device is reported as updated.
+     */
+    private void detach(Object value, Change.Type type) {
+        if (value instanceof DeviceRecord.Entry) {
+            DeviceRecord.Entry entry = (DeviceRecord.Entry) value;
+            DeviceRecord record = entry.getRecord();
+
+            synchronized (record) {
+                if (record.remove(entry)) {
+                    unindex(entry);
+
+                    AdmissionPolicy policy = this.policy;
+
+                    if (policy != null) {
+                        policy.remove(entry.getUSN());
+                    }
+
+                    if (record.isEmpty()) {
+                        record.hosts().forEach(t -> unindex(t, record));
+                        records.remove(record.getUdn(), record);
+                    } else {
+                        type = Change.Type.UPDATED;
+                    }
+
+                    fire(record.getUdn(), type);
+                }
+            }
+        }
+    }
+
+    private void fire(String udn, Change.Type type) {
+        if (type != Change.Type.REFRESHED && type != Change.Type.UPDATED) {
+            churn.increment();
+        }
+
+        if (! changeListeners.isEmpty()) {
+            synchronized (changes) {
+                changes.merge(udn, type, Change.Type::coalesce);
+
+                if (! (isFlushing() || changes.isEmpty())) {
+                    flush(service);
+                }
+            }
+        }
+    }
+
+    /*
+     * Called with the changes lock held.  The flusher is the scheduled
+     * hand-off task and then the delivery task on a worker thread: A
+     * flush is in progress until the delivery completes (or either task
+     * is cancelled or rejected).
+     */
+    private boolean isFlushing() { return flusher != null && (! flusher.isDone()); }
+
+    /*
+     * Called with the changes lock held.
+     */
+    private void flush(SSDPDiscoveryService service) {
+        flusher = null;
+
+        if (service != null) {
+            try {
+                flusher = service.schedule(() -> handoff(service), getCoalescingWindow(), MILLISECONDS);
+            } catch (RejectedExecutionException exception) {
+            }
+        }
+    }
+
+    /*
+     * If the worker rejects the delivery (e.g., its queue is full), the
+     * hand-off is retried after another coalescing window.
+     */
+    private void handoff(SSDPDiscoveryService service) {
+        synchronized (changes) {
+            try {
+                flusher = service.submit(this::deliver);
+            } catch (RejectedExecutionException exception) {
+                flush((this.service == service) ? service : null);
+            }
+        }
+    }
+
+    private void deliver() {
+        List<Change> list = new ArrayList<>();
+
+        synchronized (changes) {
+            changes.forEach((k, v) -> list.add(new Change(v, URI.create(k))));
+            changes.clear();
+        }
+
+        try {
+            if (! list.isEmpty()) {
+                List<Change> batch = Collections.unmodifiableList(list);
+
+                for (ChangeListener listener : changeListeners) {
+                    try {
+                        listener.changed(this, batch);
+                    } catch (Exception exception) {
+                    }
+                }
+            }
+        } finally {
+            synchronized (changes) {
+                flusher = null;
+
+                if (! changes.isEmpty()) {
+                    flush(service);
+                }
+            }
+        }
+    }
+
+    /*
+     * Called with the deadlines lock held.
+     */
+    private void schedule(long expiration) {
+        if (expirer != null) {
+            expirer.cancel(false);
+            expirer = null;
+        }
+
+        next = expiration;
+
+        if (service != null) {
+            try {
+                expirer = service.schedule(this::expirer, Math.max(expiration - now(), 0), MILLISECONDS);
+            } catch (RejectedExecutionException exception) {
+            }
+        }
+    }
+
+    private void expirer() {
         long now = now();
-        boolean pending =
-            values().stream()
-            .mapToLong(t -> MINUTES.convert(t.getExpiration() - now, MILLISECONDS))
-            .anyMatch(t -> t <= expirer.getDelay(MINUTES));
-        boolean expired = values().removeIf(t -> t.getExpiration() < now);
 
-        if (expired || pending) {
-            service.submit(() -> msearch(service));
+        synchronized (deadlines) {
+            Deadline head = deadlines.peek();
+
+            while (head != null && head.getExpiration() <= now) {
+                remove(deadlines.poll().getUSN(), head.getMessage(), Change.Type.EXPIRED);
+                head = deadlines.peek();
+            }
+            /*
+             * Drop deadlines for replaced or removed entries if they
+             * dominate the heap.
+             */
+            if (deadlines.size() > 2 * count() + 64) {
+                deadlines.removeIf(t -> get(t.getUSN()) != t.getMessage());
+                head = deadlines.peek();
+            }
+
+            expirer = null;
+            next = Long.MAX_VALUE;
+
+            if (head != null) {
+                schedule(head.getExpiration());
+            }
         }
     }
 
-    private void msearch(SSDPDiscoveryService service) {
+    /*
+     * ssdp:update: Only applied to a known device; the entries'
+     * expirations are not extended.
+     */
+    private void advance(URI usn, SSDPMessage message) {
+        if (usn != null) {
+            String udn = DeviceRecord.udn(usn);
+            DeviceRecord record = records.get(udn);
+
+            if (record != null) {
+                synchronized (record) {
+                    if (records.get(udn) == record) {
+                        Set<String> hosts = record.hosts();
+                        boolean stale = record.advance(message);
+
+                        reindex(hosts, record);
+
+                        if (stale) {
+                            fire(udn, Change.Type.RECONFIGURED);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void sweep(SSDPDiscoveryService service) {
+        int devices = Math.max(records.size(), 1);
+        long churn = this.churn.sumThenReset();
+        int interval = getSweepInterval();
+
+        if (sweeps.sum() == 0) {
+            /*
+             * First sweep: Nothing has been observed yet.
+             */
+        } else if (churn * 20 > devices) {
+            interval = Math.max(interval / 2, getMinimumSweepInterval());
+        } else if (churn == 0) {
+            interval = Math.min(interval * 2, getMaximumSweepInterval());
+        }
+
+        sweepInterval = interval;
+
         service.msearch(15, SSDPMessage.SSDP_ALL);
+        sweeps.increment();
+
+        synchronized (sweeps) {
+            if (sweep != null) {
+                try {
+                    sweep = service.schedule(() -> sweep(service), interval, SECONDS);
+                } catch (RejectedExecutionException exception) {
+                }
+            }
+        }
+    }
+
+    /*
+     * Entries due for refresh (and still current) are searched for
+     * again every refresh period until they are re-announced or have
+     * used up their attempts.
+     */
+    private void refresh(SSDPDiscoveryService service) {
+        long now = now();
+        long period = SECONDS.toMillis(getRefreshPeriod());
+        Set<URI> targets = new LinkedHashSet<>();
+        Map<DeviceRecord,Set<URI>> devices = new LinkedHashMap<>();
+        List<Refresh> due = new ArrayList<>();
+        List<Refresh> expired = new ArrayList<>();
+
+        synchronized (refreshes) {
+            Refresh head = refreshes.peek();
+
+            while (head != null && head.getTime() <= now) {
+                refreshes.poll();
+
+                if (get(head.getUSN()) == head.getMessage()) {
+                    if (head.getAttempts() < getRefreshAttempts()) {
+                        URI nt = head.getMessage().getNT();
+
+                        nt = (nt != null) ? nt : URI.create(DeviceRecord.udn(head.getUSN()));
+
+                        DeviceRecord record =
+                            (head.getMessage() instanceof DeviceRecord.Entry)
+                                ? ((DeviceRecord.Entry) head.getMessage()).getRecord()
+                                : null;
+
+                        if (head.getAttempts() == 0 && address(record) != null) {
+                            devices.computeIfAbsent(record, k -> new LinkedHashSet<>()).add(nt);
+                        } else {
+                            targets.add(nt);
+                        }
+
+                        due.add(new Refresh(now + period, head.getUSN(), head.getMessage(), head.getAttempts() + 1));
+                    } else {
+                        expired.add(head);
+                    }
+                }
+
+                head = refreshes.peek();
+            }
+
+            refreshes.addAll(due);
+
+            if (refreshes.size() > 2 * count() + 64) {
+                refreshes.removeIf(t -> get(t.getUSN()) != t.getMessage());
+            }
+        }
+
+        for (Refresh refresh : expired) {
+            if (remove(refresh.getUSN(), refresh.getMessage(), Change.Type.EXPIRED)) {
+                unanswered.increment();
+            }
+        }
+
+        devices.forEach((k, v) -> {
+                InetSocketAddress address = address(k);
+
+                if (address != null) {
+                    service.msearch(address, (v.size() == 1) ? v.iterator().next() : SSDPMessage.SSDP_ALL);
+                    unicast.increment();
+                } else {
+                    targets.addAll(v);
+                }
+            });
+
+        if (targets.size() > getRefreshTargets()) {
+            service.msearch(getRefreshMX(), SSDPMessage.SSDP_ALL);
+            sweeps.increment();
+        } else {
+            for (URI st : targets) {
+                service.msearch(getRefreshMX(), st);
+                targeted.increment();
+            }
+        }
     }
 
     private long now() { return System.currentTimeMillis(); }
 
+    /*
+     * The device's SEARCHPORT.UPNP.ORG on the source address of a message
+     * whose LOCATION host is that (literal) address.  The LOCATION host
+     * alone is never used (it could name any host and would have to be
+     * resolved).
+     */
+    private InetSocketAddress address(DeviceRecord record) {
+        InetSocketAddress address = null;
+
+        if (record != null) {
+            int port = record.getSearchPort();
+
+            if (0 < port && port < 65536) {
+                for (DeviceRecord.Endpoint endpoint : record.endpoints()) {
+                    InetAddress source = endpoint.getSource();
+                    String host = endpoint.getLocation().getHost();
+
+                    if (source != null && host != null) {
+                        if (host.startsWith("[") && host.endsWith("]")) {
+                            host = host.substring(1, host.length() - 1);
+                        }
+
+                        if (host.equalsIgnoreCase(source.getHostAddress())) {
+                            address = new InetSocketAddress(source, port);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        return address;
+    }
+
     private void update(URI usn, SSDPMessage message) {
         if (usn != null) {
             long time = now();
@@ -125,13 +1406,68 @@ public class SSDPDiscoveryCache extends ConcurrentSkipListMap<URI,SSDPMessage> i
             if (Objects.equals(SSDPMessage.SSDP_ALIVE, nts)) {
                 update(request.getUSN(), request);
             } else if (Objects.equals(SSDPMessage.SSDP_UPDATE, nts)) {
-                /* update(request.getUSN(), request); */
+                advance(request.getUSN(), request);
             } else if (Objects.equals(SSDPMessage.SSDP_BYEBYE, nts)) {
                 remove(request.getUSN());
             }
         }
     }
 
+    @NoArgsConstructor @ToString
+    private class PROXY implements SSDPDiscoveryService.Responder {
+        @Override
+        public void respond(SSDPDiscoveryService service, SSDPRequest request, SSDPTarget st, int limit,
+                            Consumer<? super SSDPMessage> consumer) {
+            Predicate<? super SSDPMessage> scope = getProxyScope();
+
+            if (scope != null) {
+                long now = now();
+                long minimum = SECONDS.toMillis(getProxyMinimumMaxAge());
+                boolean all = st.isAll();
+                Stream<? extends SSDPMessage> candidates = null;
+
+                if (all) {
+                    candidates = values().stream();
+                } else {
+                    Set<DeviceRecord.Entry> set = families.get(st.getFamily());
+
+                    candidates = (set != null) ? set.stream() : Stream.empty();
+                }
+
+                candidates
+                    .filter(t -> ! ((t instanceof DeviceRecord.Entry) && ((DeviceRecord.Entry) t).isProvisional()))
+                    .filter(t -> t.getExpiration() - now >= minimum)
+                    .filter(t -> t.getNT() != null && st.matches(SSDPTarget.of(t.getNT())))
+                    .filter(scope)
+                    .limit(limit)
+                    .forEach(t -> {
+                            consumer.accept(new Proxied(all ? t.getNT() : st.toURI(), t, now));
+                            proxied.increment();
+                        });
+            }
+        }
+    }
+
+    private static class Proxied extends SSDPResponse {
+        private static final long serialVersionUID = -3606011624339582960L;
+
+        public Proxied(URI st, SSDPMessage message, long now) {
+            super(SC_OK, "OK");
+
+            header(CACHE_CONTROL, MAX_AGE + "=" + MILLISECONDS.toSeconds(message.getExpiration() - now));
+            header(DATE, HttpDateGenerator.INSTANCE.getCurrentDate());
+            header(EXT, (String) null);
+            header(LOCATION, message.getLocation());
+            header(SERVER, message.getHeaderValue(SERVER, USER_AGENT));
+            header(ST, st);
+            header(USN, message.getUSN());
+
+            Stream.of(BOOTID_UPNP_ORG, CONFIGID_UPNP_ORG, SEARCHPORT_UPNP_ORG)
+                .filter(message::containsHeader)
+                .forEach(t -> header(t, message.getHeaderValue(t)));
+        }
+    }
+
     @NoArgsConstructor @ToString
     private class MSEARCH extends SSDPDiscoveryService.ResponseHandler {
         @Override
@@ -139,4 +1475,128 @@ public class SSDPDiscoveryCache extends ConcurrentSkipListMap<URI,SSDPMessage> i
             update(response.getUSN(), response);
         }
     }
+
+    @Value
+    private static class Deadline implements Comparable<Deadline> {
+        private long expiration;
+        private URI USN;
+        private SSDPMessage message;
+
+        @Override
+        public int compareTo(Deadline that) { return Long.compare(this.expiration, that.expiration); }
+    }
+
+    @Value
+    private static class Refresh implements Comparable<Refresh> {
+        private long time;
+        private URI USN;
+        private SSDPMessage message;
+        private int attempts;
+
+        @Override
+        public int compareTo(Refresh that) { return Long.compare(this.time, that.time); }
+    }
+
+    /**
+     * {@link SSDPDiscoveryCache} (coalesced) device change.
+     */
+    @Value
+    public static class Change {
+
+        /**
+         * {@link Change} type.
+         */
+        public enum Type {
+
+            /**
+             * Device added (first entry for a {@code UDN}).
+             */
+            ADDED,
+
+            /**
+             * Device entry re-announced (expiration extended) with no
+             * other change.
+             */
+            REFRESHED,
+
+            /**
+             * Device entries added or removed (the device's description
+             * is unchanged).
+             */
+            UPDATED,
+
+            /**
+             * Device rebooted ({@code BOOTID.UPNP.ORG} changed) or changed
+             * its configuration ({@code CONFIGID.UPNP.ORG} changed): The
+             * device's description must be re-fetched.
+             */
+            RECONFIGURED,
+
+            /**
+             * Device removed (last entry removed by {@code ssdp:byebye} or
+             * {@link java.util.Map#remove(Object)}).
+             */
+            REMOVED,
+
+            /**
+             * Device expired (last entry expired).
+             */
+            EXPIRED;
+
+            /*
+             * ADDED followed by any other change is still ADDED unless
+             * the device is gone again (in which case there is no net
+             * change); a device that goes and comes back is RECONFIGURED
+             * (its previous values were discarded so it may have
+             * rebooted); otherwise the more significant change wins.
+             */
+            private static Type coalesce(Type previous, Type next) {
+                Type type = next;
+
+                switch (previous) {
+                case ADDED:
+                    type = (next == REMOVED || next == EXPIRED) ? null : ADDED;
+                    break;
+
+                case REMOVED:
+                case EXPIRED:
+                    type = (next == ADDED) ? RECONFIGURED : previous;
+                    break;
+
+                case UPDATED:
+                    type = (next == REFRESHED) ? UPDATED : next;
+                    break;
+
+                case RECONFIGURED:
+                    type = (next == REFRESHED || next == UPDATED) ? RECONFIGURED : next;
+                    break;
+
+                default:
+                    break;
+                }
+
+                return type;
+            }
+        }
+
+        private Type type;
+        private URI UDN;
+    }
+
+    /**
+     * {@link SSDPDiscoveryCache} {@link Change} listener interface.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Callback to deliver a batch of (coalesced) {@link Change}s.
+         * The current entries for a device may be retrieved with
+         * {@link SSDPDiscoveryCache#getByUDN(URI)}.
+         *
+         * @param       cache           The {@link SSDPDiscoveryCache}.
+         * @param       changes         The {@link List} of {@link Change}s
+         *                              (at most one per {@code UDN}).
+         */
+        public void changed(SSDPDiscoveryCache cache, List<Change> changes);
+    }
 }
@@ -19,31 +19,54 @@ package ball.upnp.ssdp;
  * ##########################################################################
  */
 import ball.upnp.RootDevice;
-import ball.upnp.SSDP;
+import ball.upnp.USNSnapshot;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.SocketAddress;
-import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
 import lombok.ToString;
-import org.apache.hc.core5.http.ParseException;
+import lombok.Value;
+import lombok.experimental.Accessors;
 import org.apache.hc.core5.http.protocol.HttpDateGenerator;
 
+import static ball.upnp.ssdp.SSDPMessage.DATE;
+import static ball.upnp.ssdp.SSDPMessage.EOL;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static java.util.stream.Collectors.joining;
 import static java.util.stream.Collectors.toList;
@@ -54,28 +77,80 @@ import static org.apache.hc.core5.http.HttpStatus.SC_OK;
 /**
  * SSDP discovery {@link ScheduledThreadPoolExecutor} implementation.
  *
+ * <p>
+ * Work is split between dedicated I/O threads (one per socket) that
+ * receive and parse datagrams, a bounded worker pool for
+ * {@link Listener} handlers (and tasks {@link #execute(Runnable)
+ * executed} or {@link #submit(Runnable) submitted} to {@link.this}
+ * service), and the timer threads of the
+ * {@link ScheduledThreadPoolExecutor} itself which run scheduled tasks
+ * and (delayed) sends.  The pools are sized by a {@link Configuration}.
+ * </p>
+ *
+ * <p>
+ * By default, the sockets and I/O threads are shared by every
+ * {@link SSDPDiscoveryService} in the JVM (see
+ * {@link Configuration#shared()}): Each datagram is received and parsed
+ * once and then dispatched to every service.  Each service keeps its own
+ * {@link Listener}s, {@link Responder}s, and advertised devices.
+ * </p>
+ *
+ * <p>
+ * A service only opens the sockets (and I/O threads) its {@link Role}
+ * requires: A {@link Role#CONTROL_POINT} does not bind the SSDP
+ * multicast port and a {@link Role#MONITOR} does not open a unicast
+ * socket.
+ * </p>
+ *
+ * <p>
+ * {@link #close()} stops the service (including the {@code ssdp:byebye}
+ * burst for advertised devices) within a bounded time so services may
+ * be used in {@code try}-with-resources statements.
+ * </p>
+ *
+ * <p>
+ * On Java 21 and later (see {@link Threading}), the receive loops and
+ * {@link Listener} handlers may instead run on virtual {@link Thread}s:
+ * A new virtual {@link Thread} is started for every handler task.  The
+ * number of handler tasks in progress is bounded by
+ * {@link Configuration#workers() workers} plus
+ * {@link Configuration#workerQueueCapacity() workerQueueCapacity} and
+ * tasks beyond that bound are treated as if the worker queue were full.
+ * </p>
+ *
  * {@bean.info}
  *
  * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
  */
-public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
+public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor implements AutoCloseable {
     private static final String OS =
         Stream.of("os.name", "os.version")
         .map(System::getProperty)
         .map(t -> t.replaceAll("[\\p{Space}]+", EMPTY))
         .collect(joining("/"));
     private static final String UPNP = "UPnP/2.0";
+    private static final int MAXIMUM_MX = 5;
 
     private final String server;
     private final int bootId = (int) (System.currentTimeMillis() / 1000);
     private final Random random = new Random();
+    private final Role role;
+    private final SSDPSocketHub hub;
     private final MulticastSocket multicast;
     private final DatagramSocket unicast;
     private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Responder> responders = new CopyOnWriteArrayList<>();
     private final ConcurrentHashMap<RootDevice,ScheduledFuture<?>> advertisers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<RootDevice,Encoding> encodings = new ConcurrentHashMap<>();
+    private final MSEARCH msearch = new MSEARCH();
+    private final boolean virtual;
+    private final int workers;
+    private final ExecutorService worker;
+    private final LongAdder rejected = new LongAdder();
+    private final long closeTimeout;
 
     /**
-     * Sole constructor.
+     * Constructor with default {@link Configuration}.
      *
      * @param   product         The {@code product/version} {@link String}
      *                          identifying this UPnP application.
@@ -84,7 +159,50 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
      *                          cannot be conditioned.
      */
     public SSDPDiscoveryService(String product) throws IOException {
-        super(8);
+        this(product, new Configuration());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param   product         The {@code product/version} {@link String}
+     *                          identifying this UPnP application.
+     * @param   configuration   The {@link Configuration}.
+     *
+     * @throws  IOException     If the underlying {@link MulticastSocket}
+     *                          cannot be conditioned.
+     */
+    public SSDPDiscoveryService(String product, Configuration configuration) throws IOException {
+        this(product, configuration, null);
+    }
+
+    /*
+     * If hub is non-null it is used in place of the shared (or private)
+     * hub specified by the Configuration (see SSDPSocketHub.unbound()).
+     */
+    SSDPDiscoveryService(String product, Configuration configuration, SSDPSocketHub hub) throws IOException {
+        super(configuration.timers(), Threads.platform("ssdp-timer", false));
+
+        role = Objects.requireNonNull(configuration.role());
+        virtual = configuration.threading().isVirtual();
+        closeTimeout = configuration.closeTimeout();
+        workers = configuration.workers();
+
+        if (virtual) {
+            worker =
+                new BoundedExecutorService(Threads.newVirtualThreadPerTaskExecutor("ssdp-worker"),
+                                           configuration.workers() + configuration.workerQueueCapacity());
+        } else {
+            ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(configuration.workers(), configuration.workers(),
+                                       60, SECONDS,
+                                       new LinkedBlockingQueue<>(configuration.workerQueueCapacity()),
+                                       Threads.platform("ssdp-worker", false));
+
+            executor.allowCoreThreadTimeOut(true);
+
+            worker = executor;
+        }
 
         server =
             Stream.of(OS, UPNP, product)
@@ -93,34 +211,112 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
 
         random.setSeed(System.currentTimeMillis());
 
-        multicast = new SSDPMulticastSocket();
-        /*
-         * Bind to an {@link.rfc 4340} ephemeral port.
-         */
-        DatagramSocket socket = null;
-        List<Integer> ports = random.ints(49152, 65536).limit(256).boxed().collect(toList());
-
-        for (;;) {
-            try {
-                socket = new DatagramSocket(ports.remove(0));
-                break;
-            } catch (SocketException exception) {
-                if (ports.isEmpty()) {
-                    throw exception;
-                } else {
-                    continue;
-                }
+        try {
+            if (hub == null) {
+                hub =
+                    configuration.shared()
+                        ? SSDPSocketHub.acquire(role, virtual)
+                        : SSDPSocketHub.open(role, virtual);
             }
+        } catch (IOException exception) {
+            super.shutdownNow();
+            worker.shutdownNow();
+            throw exception;
         }
 
-        unicast = socket;
+        this.hub = hub;
+
+        multicast = role.isMulticast() ? hub.getMulticast() : null;
+        unicast = role.isUnicast() ? hub.getUnicast() : null;
+
+        if (role == Role.DEVICE) {
+            addListener(msearch);
+
+            scheduleWithFixedDelay(msearch::purge, 1, 1, MINUTES);
+        }
+
+        hub.attach(this);
+    }
+
+    /**
+     * Method to get {@link.this} service's {@link Role}.
+     *
+     * @return  The {@link Role}.
+     */
+    public Role getRole() { return role; }
+
+    /**
+     * Method to test if {@link.this} service runs its receive loops and
+     * handlers on virtual {@link Thread}s.
+     *
+     * @return  {@code true} if virtual {@link Thread}s are used;
+     *          {@code false} otherwise.
+     */
+    public boolean isVirtual() { return virtual; }
+
+    /**
+     * Method to get the number of tasks waiting for a worker thread.  If
+     * {@link #isVirtual()}, the number of tasks in progress in excess of
+     * {@link Configuration#workers() workers}.
+     *
+     * @return  The worker queue depth.
+     */
+    public int getWorkerQueueDepth() {
+        int depth = 0;
 
-        addListener(new MSEARCH());
+        if (worker instanceof ThreadPoolExecutor) {
+            depth = ((ThreadPoolExecutor) worker).getQueue().size();
+        } else if (worker instanceof BoundedExecutorService) {
+            depth = Math.max(0, ((BoundedExecutorService) worker).getActiveCount() - workers);
+        }
 
-        submit(() -> receive(multicast));
-        submit(() -> receive(unicast));
+        return depth;
     }
 
+    /**
+     * Method to get the number of received datagram handler tasks
+     * discarded because the worker queue was full.
+     *
+     * @return  The rejected task count.
+     */
+    public long getWorkerRejectedCount() { return rejected.sum(); }
+
+    /**
+     * Method to get the number of scheduled tasks (including pending
+     * delayed sends) waiting for a timer thread.
+     *
+     * @return  The timer queue depth.
+     */
+    public int getTimerQueueDepth() { return getQueue().size(); }
+
+    @Override
+    public void execute(Runnable command) { worker.execute(command); }
+
+    /*
+     * Received datagram handler tasks: Discarded (and counted) if the
+     * worker queue is full.  Tasks executed or submitted through the
+     * ExecutorService methods are rejected with a
+     * RejectedExecutionException instead.
+     */
+    private void handle(Runnable task) {
+        try {
+            worker.execute(task);
+        } catch (RejectedExecutionException exception) {
+            if (! worker.isShutdown()) {
+                rejected.increment();
+            }
+        }
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) { return worker.submit(task); }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) { return worker.submit(task, result); }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) { return worker.submit(task); }
+
     /**
      * {@code SERVER} and {@code USER-AGENT}
      *
@@ -145,9 +341,71 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
     /**
      * {@code SEARCHPORT.UPNP.ORG}
      *
-     * @return  Search port.
+     * @return  Search port ({@code -1} if the {@link Role} does not open
+     *          a unicast socket).
+     */
+    public int getSearchPort() { return (unicast != null) ? unicast.getLocalPort() : -1; }
+
+    /**
+     * Method to get the number of duplicate {@code M-SEARCH} requests
+     * merged into already pending responses.
+     *
+     * @return  The duplicate {@code M-SEARCH} (hit) count.
+     */
+    public long getMSearchDuplicateCount() { return msearch.hits.sum(); }
+
+    /**
+     * Method to get the number of {@code M-SEARCH} requests that were
+     * not duplicates of a pending request.
+     *
+     * @return  The unique {@code M-SEARCH} (miss) count.
+     */
+    public long getMSearchUniqueCount() { return msearch.misses.sum(); }
+
+    /**
+     * Method to get the number of {@code M-SEARCH} requests dropped
+     * because the requester exceeded its response budget.
+     *
+     * @return  The throttled {@code M-SEARCH} count.
+     */
+    public long getMSearchThrottledCount() { return msearch.throttled.sum(); }
+
+    /**
+     * Method to get the number of {@code M-SEARCH} requests dropped
+     * because the global response budget for the requester's {@code MX}
+     * window was exhausted.
+     *
+     * @return  The dropped {@code M-SEARCH} count.
+     */
+    public long getMSearchOverBudgetCount() { return msearch.dropped.sum(); }
+
+    /**
+     * Method to get the number of {@code M-SEARCH} requests and responses
+     * discarded because the requester's {@code MX} window had already
+     * closed (when handled, when built, or when due to be sent).
+     *
+     * @return  The expired {@code M-SEARCH} request and response count.
+     */
+    public long getMSearchExpiredCount() { return msearch.expired.sum(); }
+
+    /**
+     * Method to get the throttle counts of the requesters currently
+     * tracked by the {@code M-SEARCH} responder.
+     *
+     * @return  The {@link Map} of requester {@link InetAddress} to
+     *          throttled {@code M-SEARCH} count.
      */
-    public int getSearchPort() { return unicast.getLocalPort(); }
+    public Map<InetAddress,Long> getThrottledSources() {
+        TreeMap<InetAddress,Long> map = new TreeMap<>(Comparator.comparing(InetAddress::getHostAddress));
+
+        msearch.buckets.forEach((k, v) -> {
+                if (v.getThrottled() > 0) {
+                    map.put(k, v.getThrottled());
+                }
+            });
+
+        return map;
+    }
 
     /**
      * Method to add a {@link Listener}.
@@ -173,12 +431,38 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
      */
     public SSDPDiscoveryService removeListener(Listener listener) {
         if (listeners.remove(listener)) {
-            listener.register(this);
+            listener.unregister(this);
         }
 
         return this;
     }
 
+    /**
+     * Method to add a {@link Responder}.
+     *
+     * @param   responder       The {@link Responder}.
+     *
+     * @return  {@link.this}
+     */
+    public SSDPDiscoveryService addResponder(Responder responder) {
+        responders.addIfAbsent(responder);
+
+        return this;
+    }
+
+    /**
+     * Method to remove a {@link Responder}.
+     *
+     * @param   responder       The {@link Responder}.
+     *
+     * @return  {@link.this}
+     */
+    public SSDPDiscoveryService removeResponder(Responder responder) {
+        responders.remove(responder);
+
+        return this;
+    }
+
     private void fireSendEvent(DatagramSocket socket, SSDPMessage message) {
         listeners.stream().forEach(t -> t.sendEvent(this, socket, message));
     }
@@ -195,10 +479,19 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
      *                          advertisements.
      *
      * @return  {@link.this}
+     *
+     * @throws  IllegalStateException
+     *                          If {@link.this} service's {@link Role} is
+     *                          not {@link Role#DEVICE}.
      */
     public SSDPDiscoveryService advertise(RootDevice device, int rate) {
+        if (role != Role.DEVICE) {
+            throw new IllegalStateException("Cannot advertise in " + role + " role");
+        }
+
         ScheduledFuture<?> future = scheduleAtFixedRate(() -> alive(device), advertisers.size(), rate, SECONDS);
 
+        encodings.remove(device);
         future = advertisers.put(device, future);
 
         if (future != null) {
@@ -209,11 +502,35 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
     }
 
     private void alive(RootDevice device) {
-        device.notify((nt, usn) -> multicast(new Alive(nt, usn, device)));
+        for (Encoded encoded : encoding(device).alive) {
+            send(0, SSDPMulticastSocket.INET_SOCKET_ADDRESS, encoded);
+        }
     }
 
-    private void byebye(RootDevice device) {
-        device.notify((nt, usn) -> multicast(new ByeBye(nt, usn, device)));
+    /*
+     * Sent immediately (on the caller's thread) so the burst does not
+     * depend on the timer threads still running.
+     */
+    private void byebye(RootDevice device, long deadline) {
+        for (Encoded encoded : encoding(device).byebye) {
+            if (System.nanoTime() - deadline >= 0) {
+                break;
+            }
+
+            task(encoded, SSDPMulticastSocket.INET_SOCKET_ADDRESS);
+        }
+    }
+
+    private Encoding encoding(RootDevice device) {
+        USNSnapshot snapshot = device.getUSNSnapshot();
+        Encoding encoding = encodings.get(device);
+
+        if (encoding == null || encoding.generation != snapshot.getGeneration()) {
+            encoding = new Encoding(device, snapshot);
+            encodings.put(device, encoding);
+        }
+
+        return encoding;
     }
 
     /**
@@ -224,6 +541,17 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
      */
     public void msearch(int mx, URI st) { multicast(0, new MSearch(mx, st)); }
 
+    /**
+     * Send unicast {@code M-SEARCH} messsage (UPnP 1.1 section 1.3.2:
+     * {@code HOST} is the target and there is no {@code MX}).
+     *
+     * @param   address         The target device's
+     *                          {@code SEARCHPORT.UPNP.ORG}
+     *                          {@link InetSocketAddress}.
+     * @param   st              The {@code ST} header value.
+     */
+    public void msearch(InetSocketAddress address, URI st) { send(0, address, new MSearch(address, st)); }
+
     /**
      * Method to queue an {@link SSDPMessage} for multicast without delay.
      *
@@ -263,16 +591,36 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
      * @param   message         The {@link SSDPMessage} to send.
      */
     public void send(long delay, SocketAddress address, SSDPMessage message) {
-        byte[] bytes = message.toString().getBytes(UTF_8);
-        DatagramPacket packet = new DatagramPacket(bytes, 0, bytes.length, address);
+        send(delay, address, new Encoded(message));
+    }
 
-        schedule(() -> task(message, packet), delay, MILLISECONDS);
+    private void send(long delay, SocketAddress address, Encoded encoded) {
+        schedule(() -> task(encoded, address), delay, MILLISECONDS);
     }
 
-    private void task(SSDPMessage message, DatagramPacket packet) {
+    /*
+     * Responses still queued when the requester's window has closed are
+     * discarded (and counted).
+     */
+    private void task(Encoded encoded, SocketAddress address, long deadline) {
+        if (System.currentTimeMillis() <= deadline) {
+            task(encoded, address);
+        } else {
+            msearch.expired.increment();
+        }
+    }
+
+    /*
+     * A MONITOR has no unicast socket and never sends.
+     */
+    private void task(Encoded encoded, SocketAddress address) {
+        if (unicast == null) {
+            return;
+        }
+
         try {
-            fireSendEvent(unicast, message);
-            unicast.send(packet);
+            fireSendEvent(unicast, encoded.message);
+            unicast.send(encoded.toDatagramPacket(address));
         } catch (IOException exception) {
         }
     }
@@ -282,73 +630,305 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
      * with a {@code MX} parameter.  Messages are sent in list order with
      * random delays none greater that {@code MX} seconds.
      *
-     * @param   mx              Maximum delay (in seconds) before sending.
+     * @param   mx              Maximum delay (in seconds) before sending
+     *                          (UPnP 1.1: at most 5; larger values are
+     *                          treated as 5).
      * @param   address         The destination {@link SocketAddress}.
      * @param   messages        The {@link List} of {@link SSDPMessage}s to
      *                          send.
      */
     public void send(int mx, SocketAddress address, List<? extends SSDPMessage> messages) {
+        send(0, deadline(System.currentTimeMillis(), mx), address,
+             messages.stream().map(Encoded::new).collect(toList()));
+    }
+
+    /*
+     * The latest time a response to a request received at timestamp with
+     * the specified MX may be sent.  UPnP 1.1 section 1.3.3: MX should be
+     * between 1 and 5 and a larger value is treated as 5.
+     */
+    private static long deadline(long timestamp, int mx) {
+        return timestamp + SECONDS.toMillis(1 + Math.max(0, Math.min(mx, MAXIMUM_MX)));
+    }
+
+    private void send(long start, long deadline, SocketAddress address, List<Encoded> messages) {
+        long window = deadline - System.currentTimeMillis() - SECONDS.toMillis(1);
+        int bound = (int) Math.max(window - start, 1);
         List<Long> delays =
             messages.stream()
-            .map(t -> random.nextInt((int) SECONDS.toMillis(mx)))
-            .map(t -> SECONDS.toMillis(1) + t)
+            .map(t -> random.nextInt(bound))
+            .map(t -> SECONDS.toMillis(1) + start + t)
             .collect(toList());
 
         delays.sort(Comparator.naturalOrder());
 
-        messages.stream().forEach(t -> send(delays.remove(0), address, t));
+        messages.stream()
+            .forEach(t -> schedule(() -> task(t, address, deadline), delays.remove(0), MILLISECONDS));
     }
 
-    private void receive(DatagramSocket socket) {
-        try {
-            socket.setSoTimeout((int) MILLISECONDS.convert(15, SECONDS));
+    /*
+     * Called by the SSDPSocketHub I/O threads for every received (and
+     * already parsed) SSDPMessage.  The SSDPMessage may be shared with
+     * other services and must not be modified.  Messages received on a
+     * (shared) socket this service's Role does not use are ignored.
+     */
+    void dispatch(DatagramSocket socket, SSDPMessage message) {
+        if ((socket == multicast || socket == unicast) && (! isShutdown())) {
+            fireReceiveEvent(socket, message);
+        }
+    }
 
-            for (;;) {
-                try {
-                    byte[] bytes = new byte[8 * 1024];
-                    DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+    private void withdraw(long deadline) {
+        advertisers.values().stream().forEach(t -> t.cancel(true));
+        advertisers.keySet().stream().forEach(t -> byebye(t, deadline));
+        advertisers.clear();
+        encodings.clear();
+    }
+
+    @Override
+    public void shutdown() {
+        withdraw(System.nanoTime() + MILLISECONDS.toNanos(closeTimeout));
+
+        super.shutdown();
+        worker.shutdown();
+    }
+
+    /**
+     * Method to stop {@link.this} service within the
+     * {@link Configuration#closeTimeout()}.  See
+     * {@link #close(long,TimeUnit)}.
+     */
+    @Override
+    public void close() { close(closeTimeout, MILLISECONDS); }
+
+    /**
+     * Method to stop {@link.this} service within a bounded time.  The
+     * sequence is:
+     * <ol>
+     *   <li>Cancel advertisements and send the {@code ssdp:byebye} burst
+     *       for every advertised device (on the calling {@link Thread})</li>
+     *   <li>Stop the timer and worker threads discarding any pending
+     *       (delayed) sends and handler tasks</li>
+     *   <li>Release the sockets (closing them, and unblocking the
+     *       receive {@link Thread}s, if no other service shares them)</li>
+     *   <li>Join the timer, worker, and receive {@link Thread}s</li>
+     * </ol>
+     * Each step is abandoned once {@code timeout} has elapsed.
+     *
+     * @param   timeout         The maximum time to wait.
+     * @param   unit            The {@link TimeUnit} of {@code timeout}.
+     */
+    public void close(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
 
-                    socket.receive(packet);
+        if (! isShutdown()) {
+            withdraw(deadline);
+        }
+
+        shutdownNow();
+        hub.release(this);
+
+        try {
+            awaitTermination(deadline - System.nanoTime(), NANOSECONDS);
 
-                    SSDPMessage message = parse(packet);
+            if (hub.isClosed()) {
+                for (Thread thread : hub.getReceivers()) {
+                    long millis = NANOSECONDS.toMillis(deadline - System.nanoTime());
 
-                    if (message != null) {
-                        fireReceiveEvent(socket, message);
+                    if (millis > 0) {
+                        thread.join(millis);
+                    } else {
+                        break;
                     }
-                } catch (SocketTimeoutException exception) {
                 }
             }
-        } catch (IOException exception) {
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    private SSDPMessage parse(DatagramPacket packet) {
-        SSDPMessage message = null;
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> list = new LinkedList<>();
 
-        if (message == null) {
-            try {
-                message = SSDPResponse.from(packet);
-            } catch (ParseException exception) {
-            }
-        }
+        list.addAll(super.shutdownNow());
+        list.addAll(worker.shutdownNow());
 
-        if (message == null) {
-            try {
-                message = SSDPRequest.from(packet);
-            } catch (ParseException exception) {
-            }
+        return list;
+    }
+
+    /*
+     * The byebye messages are sent synchronously by withdraw() but a
+     * service stopped with shutdown() (rather than close()) must still
+     * release its reference to the (possibly shared) sockets.  That is
+     * done here, once the timer has terminated, so tasks that were
+     * already running (e.g., delayed M-SEARCH responses) can complete
+     * their sends.  Releasing is idempotent so close() may release
+     * earlier.
+     */
+    @Override
+    protected void terminated() {
+        super.terminated();
+        /*
+         * The constructor shuts the executor down (terminating it
+         * immediately) before hub is assigned if the sockets cannot be
+         * opened.
+         */
+        if (hub != null) {
+            hub.release(this);
         }
+    }
 
-        return message;
+    @Override
+    public boolean isTerminated() {
+        return super.isTerminated() && worker.isTerminated();
     }
 
     @Override
-    public void shutdown() {
-        advertisers.values().stream().forEach(t -> t.cancel(true));
-        advertisers.keySet().stream().forEach(t -> byebye(t));
-        advertisers.clear();
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
 
-        super.shutdown();
+        return (super.awaitTermination(timeout, unit)
+                && worker.awaitTermination(deadline - System.nanoTime(), NANOSECONDS));
+    }
+
+    /**
+     * {@link SSDPDiscoveryService} construction-time configuration.
+     * Setters are fluent and chain:
+     *
+     * {@code new SSDPDiscoveryService.Configuration().workers(8).workerQueueCapacity(4096)}
+     */
+    @Getter @Setter @Accessors(chain = true, fluent = true)
+    @NoArgsConstructor @ToString
+    public static class Configuration {
+
+        /**
+         * Number of timer threads.
+         */
+        private int timers = 1;
+
+        /**
+         * Number of worker ({@link Listener} handler) threads.
+         */
+        private int workers = 4;
+
+        /**
+         * Worker queue capacity.  {@link Listener} handler tasks for
+         * received datagrams are discarded (and counted) when the queue
+         * is full; tasks executed or submitted to the service are
+         * rejected with a {@link RejectedExecutionException}.
+         */
+        private int workerQueueCapacity = 1024;
+
+        /**
+         * {@link Threading} mode.
+         */
+        private Threading threading = Threading.AUTO;
+
+        /**
+         * Whether to use the JVM-wide shared SSDP sockets (and receive
+         * {@link Thread}s).  If {@code false}, the service opens its own
+         * sockets.
+         */
+        private boolean shared = true;
+
+        /**
+         * Maximum time (in milliseconds) {@link SSDPDiscoveryService#close()}
+         * (and the {@code ssdp:byebye} burst sent by
+         * {@link SSDPDiscoveryService#shutdown()}) may take.
+         */
+        private long closeTimeout = 2000;
+
+        /**
+         * {@link Role}.
+         */
+        private Role role = Role.DEVICE;
+    }
+
+    /**
+     * {@link SSDPDiscoveryService} role.  Specifies which sockets (and
+     * receive {@link Thread}s) are opened.
+     */
+    public enum Role {
+
+        /**
+         * Search-only control point: Opens the unicast socket only to
+         * send {@code M-SEARCH} requests and receive their responses.
+         * Does not receive multicast advertisements.
+         */
+        CONTROL_POINT(false, true),
+
+        /**
+         * Device (or control point tracking advertisements): Opens both
+         * the SSDP multicast socket and the unicast socket, advertises
+         * devices, and answers {@code M-SEARCH} requests.
+         */
+        DEVICE(true, true),
+
+        /**
+         * Passive monitor: Opens the SSDP multicast socket only.  Never
+         * sends.
+         */
+        MONITOR(true, false);
+
+        private final boolean multicast;
+        private final boolean unicast;
+
+        private Role(boolean multicast, boolean unicast) {
+            this.multicast = multicast;
+            this.unicast = unicast;
+        }
+
+        boolean isMulticast() { return multicast; }
+
+        boolean isUnicast() { return unicast; }
+    }
+
+    /**
+     * {@link SSDPDiscoveryService} receive loop and handler
+     * {@link Thread} mode.
+     */
+    public enum Threading {
+
+        /**
+         * Virtual {@link Thread}s if available (Java 21 and later);
+         * {@link #PLATFORM} otherwise.
+         */
+        AUTO,
+
+        /**
+         * Platform {@link Thread}s with a bounded worker pool.
+         */
+        PLATFORM,
+
+        /**
+         * Virtual {@link Thread}s (the number of handler tasks in
+         * progress is bounded).  Requires Java 21 or later.
+         */
+        VIRTUAL;
+
+        private boolean isVirtual() {
+            boolean virtual = false;
+
+            switch (this) {
+            case AUTO:
+                virtual = Threads.isVirtualSupported();
+                break;
+
+            case VIRTUAL:
+                if (! Threads.isVirtualSupported()) {
+                    throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+                }
+
+                virtual = true;
+                break;
+
+            default:
+                break;
+            }
+
+            return virtual;
+        }
     }
 
     /**
@@ -391,6 +971,34 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
         public void receiveEvent(SSDPDiscoveryService service, DatagramSocket socket, SSDPMessage message);
     }
 
+    /**
+     * {@link SSDPDiscoveryService} multicast {@code M-SEARCH} responder
+     * interface.  A {@link Responder} contributes responses on behalf of
+     * devices not advertised by the {@link SSDPDiscoveryService} (e.g.,
+     * from a {@link SSDPDiscoveryCache}).  Contributed responses are
+     * subject to the same duplicate suppression and response budgets as
+     * the service's own and responses for {@code USN}s the service
+     * advertises itself are discarded.
+     */
+    public interface Responder {
+
+        /**
+         * Callback to contribute responses to an {@code M-SEARCH}.
+         *
+         * @param       service         The {@link SSDPDiscoveryService}.
+         * @param       request         The {@code M-SEARCH}
+         *                              {@link SSDPRequest}.
+         * @param       st              The parsed {@code ST}.
+         * @param       limit           The maximum number of responses
+         *                              the requester's response budget
+         *                              allows (always positive).
+         * @param       consumer        The {@link Consumer} to accept
+         *                              responses.
+         */
+        public void respond(SSDPDiscoveryService service, SSDPRequest request, SSDPTarget st, int limit,
+                            Consumer<? super SSDPMessage> consumer);
+    }
+
     /**
      * {@link SSDPDiscoveryService} {@link SSDPRequest} handler.
      */
@@ -421,7 +1029,7 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
                 SSDPRequest request = (SSDPRequest) message;
 
                 if (method.is(request.getMethod())) {
-                    service.submit(() -> run(service, socket, request));
+                    service.handle(() -> run(service, socket, request));
                 }
             }
         }
@@ -452,7 +1060,7 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
         @Override
         public void receiveEvent(SSDPDiscoveryService service, DatagramSocket socket, SSDPMessage message) {
             if (message instanceof SSDPResponse) {
-                service.submit(() -> run(service, socket, (SSDPResponse) message));
+                service.handle(() -> run(service, socket, (SSDPResponse) message));
             }
         }
 
@@ -463,53 +1071,394 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
 
     @ToString
     private class MSEARCH extends RequestHandler {
+        private static final int MAXIMUM_PENDING = 4096;
+
+        private final ConcurrentHashMap<Query,Long> pending = new ConcurrentHashMap<>();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final ConcurrentHashMap<InetAddress,TokenBucket> buckets = new ConcurrentHashMap<>();
+        private final TokenBucket budget = new TokenBucket(4096, 1024, System.currentTimeMillis());
+        private final LongAdder throttled = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        private final LongAdder expired = new LongAdder();
+
         public MSEARCH() { super(SSDPRequest.Method.MSEARCH); }
 
         @Override
         public void run(SSDPDiscoveryService service, DatagramSocket socket, SSDPRequest request) {
             try {
-                if (isHeaderValue(request, SSDPMessage.MAN, "\"ssdp:discover\"")) {
-                    int mx = request.getMX();
+                if (socket == unicast) {
+                    unicast(service, request);
+                } else if (isHeaderValue(request, SSDPMessage.MAN, "\"ssdp:discover\"")) {
+                    /*
+                     * A multicast M-SEARCH without an MX is invalid.
+                     */
+                    if (request.getHeaderValue(SSDPMessage.MX) == null) {
+                        return;
+                    }
+
+                    long deadline = deadline(request.getTimestamp(), request.getMX());
+
+                    if (isExpired(deadline - SECONDS.toMillis(1))) {
+                        return;
+                    }
+
                     SocketAddress address = request.getSocketAddress();
-                    List<SSDPMessage> list = new LinkedList<>();
-                    URI st = request.getST();
-                    boolean all = SSDPMessage.SSDP_ALL.equals(st);
-
-                    advertisers.keySet().stream()
-                        .forEach(device -> device.notify((nt, usn) -> {
-                                    if (SSDP.matches(st, nt)) {
-                                        list.add(new MSearch(service, all ? nt : st, usn, device));
-                                    }
-                                }));
-
-                    service.send(mx, address, list);
+                    SSDPTarget st = SSDPTarget.of(request.getST());
+                    Query query = new Query(address, st, request.getHeaderValue(SSDPMessage.MAN));
+                    Long pending = pend(query, deadline);
+
+                    if (pending == null) {
+                        return;
+                    }
+
+                    boolean scheduled = false;
+
+                    try {
+                        scheduled = respond(service, request, address, st, deadline);
+                    } finally {
+                        unpend(query, pending, scheduled);
+                    }
                 }
             } catch (Exception exception) {
                 /* log.error("{}", exception.getMessage(), exception); */
             }
         }
 
+        /*
+         * Returns true if the responses were scheduled (or there are
+         * none); false if the request was dropped (e.g., throttled or
+         * expired) so a retransmission is not treated as a duplicate.
+         */
+        private boolean respond(SSDPDiscoveryService service, SSDPRequest request,
+                                SocketAddress address, SSDPTarget st, long deadline) {
+            int limit = available(address, deadline - System.currentTimeMillis() - SECONDS.toMillis(1) - 1);
+
+            if (limit <= 0) {
+                return false;
+            }
+
+            List<Encoded> list = new ArrayList<>();
+            Set<URI> local = new HashSet<>();
+
+            advertisers.keySet().stream().forEach(t -> respond(st, t, list, local));
+
+            for (Responder responder : responders) {
+                int remaining = limit - list.size();
+
+                if (remaining <= 0) {
+                    break;
+                }
+
+                responder.respond(service, request, st, remaining, m -> {
+                        if (! local.contains(m.getUSN())) {
+                            list.add(new Encoded(m));
+                        }
+                    });
+            }
+
+            boolean scheduled = true;
+
+            if (! list.isEmpty()) {
+                scheduled = false;
+
+                if (! isExpired(deadline - SECONDS.toMillis(1))) {
+                    long window = deadline - System.currentTimeMillis() - SECONDS.toMillis(1);
+                    long start = reserve(address, list.size(), window - 1);
+
+                    if (start >= 0) {
+                        send(start, deadline, address, list);
+                        scheduled = true;
+                    }
+                }
+            }
+
+            return scheduled;
+        }
+
+        /*
+         * UPnP 1.1 section 1.3.2: Unicast searches are answered
+         * immediately (MX is ignored).
+         */
+        private void unicast(SSDPDiscoveryService service, SSDPRequest request) {
+            SocketAddress address = request.getSocketAddress();
+            SSDPTarget st = SSDPTarget.of(request.getST());
+            List<Encoded> list = new ArrayList<>();
+            Set<URI> local = new HashSet<>();
+
+            advertisers.keySet().stream().forEach(t -> respond(st, t, list, local));
+
+            if (! list.isEmpty()) {
+                if (reserve(address, list.size(), 0) >= 0) {
+                    list.stream().forEach(t -> task(t, address));
+                }
+            }
+        }
+
+        /*
+         * Responses for ssdp:all or an exact NT are the pre-encoded
+         * datagrams; others (e.g., an earlier version of a type) are
+         * built on demand.
+         */
+        private void respond(SSDPTarget st, RootDevice device, List<Encoded> list, Set<URI> local) {
+            Encoding encoding = encoding(device);
+            boolean all = st.isAll();
+
+            for (int i = 0; i < encoding.nt.length; i += 1) {
+                if (st.matches(encoding.nt[i])) {
+                    if (all || st.equals(encoding.nt[i])) {
+                        list.add(encoding.response[i]);
+                    } else {
+                        list.add(new Encoded(new Response(st.toURI(), encoding.usn[i], device)));
+                    }
+
+                    local.add(encoding.usn[i]);
+                }
+            }
+        }
+
+        /*
+         * Checked when a request is dispatched to a worker and again after
+         * its responses are built: Responses are delayed at least one
+         * second so once the requester's MX window would close before
+         * then, any response would be ignored.
+         */
+        private boolean isExpired(long latest) {
+            boolean expired = System.currentTimeMillis() > latest;
+
+            if (expired) {
+                this.expired.increment();
+            }
+
+            return expired;
+        }
+
         private boolean isHeaderValue(SSDPRequest request, String header, String value) {
             return Objects.equals(request.getHeaderValue(header), value);
         }
 
-        private class MSearch extends SSDPResponse {
-            private static final long serialVersionUID = -2963023442177743880L;
+        /*
+         * Control points typically repeat each M-SEARCH two or three
+         * times.  A query is pending from when it is first received until
+         * the latest possible response (1 + MX seconds) has been sent; a
+         * duplicate received in that window is merged into the responses
+         * already scheduled.  Returns the pending value (to pass to
+         * unpend()) or null if the query is a duplicate.  Once the table
+         * is full, new queries are answered but not tracked.
+         */
+        private Long pend(Query query, long deadline) {
+            Long value = deadline;
+
+            if (pending.size() < MAXIMUM_PENDING) {
+                if (pending.putIfAbsent(query, value) != null) {
+                    value = null;
+                }
+            }
+
+            if (value != null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+
+            return value;
+        }
+
+        /*
+         * A query whose responses were dropped is removed at once so a
+         * retransmission is answered.
+         */
+        private void unpend(Query query, Long value, boolean scheduled) {
+            if (scheduled) {
+                long delay = Math.max(value - System.currentTimeMillis(), 0);
+
+                try {
+                    schedule(() -> pending.remove(query, value), delay, MILLISECONDS);
+                } catch (RejectedExecutionException exception) {
+                    pending.remove(query, value);
+                }
+            } else {
+                pending.remove(query, value);
+            }
+        }
+
+        /*
+         * Each requester has its own token bucket (in response datagrams)
+         * and all requesters share a global budget.  Responses that
+         * cannot be paid for within the requester's MX window are
+         * dropped; otherwise they are delayed until the budget allows.
+         */
+        private long reserve(SocketAddress address, int count, long limit) {
+            long now = System.currentTimeMillis();
+            long start = 0;
+            TokenBucket bucket = bucket(address, now);
+
+            if (bucket != null) {
+                start = bucket.reserve(count, now, limit);
+            }
+
+            if (start >= 0) {
+                long wait = budget.reserve(count, now, limit);
+
+                if (wait >= 0) {
+                    start = Math.max(start, wait);
+                } else {
+                    if (bucket != null) {
+                        bucket.release(count);
+                    }
+
+                    dropped.increment();
+                    start = -1;
+                }
+            } else {
+                throttled.increment();
+            }
+
+            return start;
+        }
+
+        /*
+         * Checked before any responses are built: The number of
+         * responses the requester's bucket and the global budget could
+         * pay for within the window.  (The responses are reserved
+         * separately once built.)
+         */
+        private int available(SocketAddress address, long limit) {
+            long now = System.currentTimeMillis();
+            int available = Integer.MAX_VALUE;
+            TokenBucket bucket = bucket(address, now);
+
+            if (bucket != null) {
+                available = bucket.available(now, limit);
+
+                if (available <= 0) {
+                    throttled.increment();
+                }
+            }
+
+            if (available > 0) {
+                available = Math.min(available, budget.available(now, limit));
+
+                if (available <= 0) {
+                    dropped.increment();
+                }
+            }
+
+            return available;
+        }
+
+        private TokenBucket bucket(SocketAddress address, long now) {
+            TokenBucket bucket = null;
+
+            if (address instanceof InetSocketAddress) {
+                bucket =
+                    buckets.computeIfAbsent(((InetSocketAddress) address).getAddress(),
+                                            k -> new TokenBucket(512, 128, now));
+            }
+
+            return bucket;
+        }
+
+        private void purge() {
+            long now = System.currentTimeMillis();
+
+            buckets.values().removeIf(t -> t.isFull(now));
+        }
+
+        @Value
+        private class Query {
+            private SocketAddress address;
+            private SSDPTarget st;
+            private String man;
+        }
+    }
+
+    /*
+     * Datagrams for a RootDevice's NT/USN pairs encoded once per
+     * USNSnapshot generation.
+     */
+    @ToString
+    private class Encoding {
+        private final long generation;
+        private final SSDPTarget[] nt;
+        private final URI[] usn;
+        private final Encoded[] alive;
+        private final Encoded[] byebye;
+        private final Encoded[] response;
+
+        public Encoding(RootDevice device, USNSnapshot snapshot) {
+            int size = snapshot.size();
+
+            generation = snapshot.getGeneration();
+            nt = new SSDPTarget[size];
+            usn = new URI[size];
+            alive = new Encoded[size];
+            byebye = new Encoded[size];
+            response = new Encoded[size];
+
+            for (int i = 0; i < size; i += 1) {
+                nt[i] = SSDPTarget.of(snapshot.getNT(i));
+                usn[i] = snapshot.getUSN(i);
+                alive[i] = new Encoded(new Alive(snapshot.getNT(i), usn[i], device));
+                byebye[i] = new Encoded(new ByeBye(snapshot.getNT(i), usn[i], device));
+                response[i] = new Encoded(new Response(snapshot.getNT(i), usn[i], device));
+            }
+        }
+    }
+
+    /*
+     * Encoded SSDPMessage.  A DATE value is fixed-length (RFC 1123) so it
+     * is patched in place on a copy of the encoded bytes when sent.
+     */
+    @ToString
+    private static class Encoded {
+        private static final String PREFIX = EOL + DATE + ": ";
+
+        private final SSDPMessage message;
+        private final byte[] bytes;
+        private final int date;
+
+        public Encoded(SSDPMessage message) {
+            String string = message.toString();
+            int index = string.indexOf(PREFIX);
+
+            this.message = message;
+            this.bytes = string.getBytes(UTF_8);
+            this.date = (index >= 0) ? string.substring(0, index + PREFIX.length()).getBytes(UTF_8).length : -1;
+        }
+
+        public DatagramPacket toDatagramPacket(SocketAddress address) {
+            byte[] bytes = this.bytes;
 
-            public MSearch(SSDPDiscoveryService service, URI st, URI usn, RootDevice device) {
-                super(SC_OK, "OK");
+            if (date >= 0) {
+                byte[] value = HttpDateGenerator.INSTANCE.getCurrentDate().getBytes(US_ASCII);
 
-                header(CACHE_CONTROL, MAX_AGE + "=" + device.getMaxAge());
-                header(DATE, HttpDateGenerator.INSTANCE.getCurrentDate());
-                header(EXT, (String) null);
-                header(LOCATION, device.getLocation());
-                header(SERVER, service.getUserAgent());
-                header(ST, st);
-                header(USN, usn);
-                header(BOOTID_UPNP_ORG, service.getBootId());
-                header(CONFIGID_UPNP_ORG, device.getConfigId());
-                header(SEARCHPORT_UPNP_ORG, service.getSearchPort());
+                if (date + value.length <= bytes.length) {
+                    bytes = bytes.clone();
+                    System.arraycopy(value, 0, bytes, date, value.length);
+                }
             }
+
+            return new DatagramPacket(bytes, bytes.length, address);
+        }
+    }
+
+    private class Response extends SSDPResponse {
+        private static final long serialVersionUID = -2963023442177743880L;
+
+        public Response(URI st, URI usn, RootDevice device) {
+            super(SC_OK, "OK");
+
+            header(CACHE_CONTROL, MAX_AGE + "=" + device.getMaxAge());
+            header(DATE, HttpDateGenerator.INSTANCE.getCurrentDate());
+            header(EXT, (String) null);
+            header(LOCATION, device.getLocation());
+            header(SERVER, getUserAgent());
+            header(ST, st);
+            header(USN, usn);
+            header(BOOTID_UPNP_ORG, getBootId());
+            header(CONFIGID_UPNP_ORG, device.getConfigId());
+            header(SEARCHPORT_UPNP_ORG, getSearchPort());
         }
     }
 
@@ -525,6 +1474,15 @@ public class SSDPDiscoveryService extends ScheduledThreadPoolExecutor {
             header(ST, st);
             header(USER_AGENT, getUserAgent());
         }
+
+        public MSearch(InetSocketAddress address, URI st) {
+            super(Method.MSEARCH);
+
+            header(HOST, address);
+            header(MAN, "\"ssdp:discover\"");
+            header(ST, st);
+            header(USER_AGENT, getUserAgent());
+        }
     }
 
     private class Alive extends SSDPRequest {
@@ -127,6 +127,14 @@ public class SSDPRequest extends BasicHttpRequest implements SSDPMessage {
      */
     public SocketAddress getSocketAddress() { return address; }
 
+    /**
+     * Method to get the time {@link.this} {@link SSDPRequest} was created
+     * (received, if parsed from a {@link DatagramPacket}).
+     *
+     * @return  The timestamp (milliseconds since the UNIX epoch).
+     */
+    public long getTimestamp() { return timestamp; }
+
     public String getRequestLine() {
         String string =
             Stream.of(getMethod(), getPath(), getVersion())
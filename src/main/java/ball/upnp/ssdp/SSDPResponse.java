@@ -61,10 +61,14 @@ public class SSDPResponse extends BasicHttpResponse implements SSDPMessage {
         StatusLine line = BasicLineParser.INSTANCE.parseStatusLine(list.remove(0));
         SSDPResponse response = new SSDPResponse(line.getStatusCode(), line.getReasonPhrase());
 
+        response.setVersion(line.getProtocolVersion());
+
         for (CharArrayBuffer buffer : list) {
             response.addHeader(BasicLineParser.INSTANCE.parseHeader(buffer));
         }
 
+        response.address = packet.getSocketAddress();
+
         return response;
     }
 
@@ -0,0 +1,299 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.MulticastSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.hc.core5.http.ParseException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * SSDP socket hub: Owns the SSDP {@link MulticastSocket}, the unicast
+ * ({@code SEARCHPORT}) {@link DatagramSocket}, and their receive
+ * {@link Thread}s.  Each socket (and its receive {@link Thread}) is only
+ * opened once an attached {@link SSDPDiscoveryService}'s
+ * {@link SSDPDiscoveryService.Role} requires it.  Each datagram is parsed
+ * once and the resulting {@link SSDPMessage} is dispatched to every
+ * attached {@link SSDPDiscoveryService}.  The JVM-wide
+ * {@link #acquire(SSDPDiscoveryService.Role,boolean) shared} hub is
+ * reference-counted: It is opened by the first
+ * {@link SSDPDiscoveryService} that attaches and closed when the last
+ * one {@link #release(SSDPDiscoveryService) releases} it.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString(of = { "shared", "services" })
+final class SSDPSocketHub {
+    private static SSDPSocketHub SHARED = null;
+
+    /**
+     * Static method to acquire the JVM-wide shared {@link SSDPSocketHub}.
+     * Each call must be balanced by a call to
+     * {@link #release(SSDPDiscoveryService)}.
+     *
+     * @param   role            The {@link SSDPDiscoveryService.Role}
+     *                          specifying the required sockets.
+     * @param   virtual         Whether receive loops should run on
+     *                          virtual {@link Thread}s if the hub must
+     *                          be opened.
+     *
+     * @return  The shared {@link SSDPSocketHub}.
+     *
+     * @throws  IOException     If the sockets cannot be opened.
+     */
+    public static synchronized SSDPSocketHub acquire(SSDPDiscoveryService.Role role,
+                                                     boolean virtual) throws IOException {
+        SSDPSocketHub hub = (SHARED != null) ? SHARED : new SSDPSocketHub(true, virtual);
+
+        try {
+            hub.open(role);
+        } catch (IOException exception) {
+            if (hub.references <= 0) {
+                hub.close();
+            }
+
+            throw exception;
+        }
+
+        SHARED = hub;
+        SHARED.references += 1;
+
+        return SHARED;
+    }
+
+    /**
+     * Static method to open a private (unshared) {@link SSDPSocketHub}.
+     *
+     * @param   role            The {@link SSDPDiscoveryService.Role}
+     *                          specifying the required sockets.
+     * @param   virtual         Whether receive loops should run on
+     *                          virtual {@link Thread}s.
+     *
+     * @return  The new {@link SSDPSocketHub}.
+     *
+     * @throws  IOException     If the sockets cannot be opened.
+     */
+    public static SSDPSocketHub open(SSDPDiscoveryService.Role role, boolean virtual) throws IOException {
+        SSDPSocketHub hub = new SSDPSocketHub(false, virtual);
+
+        synchronized (SSDPSocketHub.class) {
+            try {
+                hub.open(role);
+            } catch (IOException exception) {
+                hub.close();
+                throw exception;
+            }
+
+            hub.references += 1;
+        }
+
+        return hub;
+    }
+
+    /**
+     * Static method to create a private {@link SSDPSocketHub} that never
+     * opens any sockets (or starts any receive {@link Thread}s).  An
+     * attached {@link SSDPDiscoveryService} only handles the messages
+     * explicitly dispatched to it and never sends (e.g., for tests).
+     *
+     * @return  The new {@link SSDPSocketHub}.
+     */
+    static SSDPSocketHub unbound() {
+        SSDPSocketHub hub = new SSDPSocketHub(false, false);
+
+        synchronized (SSDPSocketHub.class) {
+            hub.references += 1;
+        }
+
+        return hub;
+    }
+
+    private final boolean shared;
+    private final ThreadFactory factory;
+    @Getter private volatile MulticastSocket multicast = null;
+    @Getter private volatile DatagramSocket unicast = null;
+    private final CopyOnWriteArrayList<SSDPDiscoveryService> services = new CopyOnWriteArrayList<>();
+    @Getter private final List<Thread> receivers = new CopyOnWriteArrayList<>();
+    private int references = 0;
+
+    private SSDPSocketHub(boolean shared, boolean virtual) {
+        this.shared = shared;
+        this.factory = virtual ? Threads.virtual("ssdp-io") : Threads.platform("ssdp-io", true);
+    }
+
+    /*
+     * Called with the SSDPSocketHub.class lock held.
+     */
+    private void open(SSDPDiscoveryService.Role role) throws IOException {
+        if (role.isMulticast() && multicast == null) {
+            multicast = start(new SSDPMulticastSocket());
+        }
+
+        if (role.isUnicast() && unicast == null) {
+            unicast = start(bind(new Random(System.currentTimeMillis())));
+        }
+    }
+
+    private <T extends DatagramSocket> T start(T socket) {
+        Thread thread = factory.newThread(() -> receive(socket));
+
+        receivers.add(thread);
+        thread.start();
+
+        return socket;
+    }
+
+    /*
+     * Bind to an {@link.rfc 4340} ephemeral port.
+     */
+    private static DatagramSocket bind(Random random) throws IOException {
+        DatagramSocket socket = null;
+        List<Integer> ports = random.ints(49152, 65536).limit(256).boxed().collect(toList());
+
+        for (;;) {
+            try {
+                socket = new DatagramSocket(ports.remove(0));
+                break;
+            } catch (SocketException exception) {
+                if (ports.isEmpty()) {
+                    throw exception;
+                } else {
+                    continue;
+                }
+            }
+        }
+
+        return socket;
+    }
+
+    /**
+     * Method to attach a {@link SSDPDiscoveryService} to receive
+     * dispatched {@link SSDPMessage}s.
+     *
+     * @param   service         The {@link SSDPDiscoveryService}.
+     */
+    public void attach(SSDPDiscoveryService service) { services.addIfAbsent(service); }
+
+    /**
+     * Method to detach a {@link SSDPDiscoveryService} and release its
+     * reference to {@link.this} hub.  The sockets are closed (and the
+     * receive {@link Thread}s exit) once the last reference is released.
+     *
+     * @param   service         The {@link SSDPDiscoveryService}.
+     */
+    public void release(SSDPDiscoveryService service) {
+        if (services.remove(service)) {
+            boolean close = false;
+
+            synchronized (SSDPSocketHub.class) {
+                references -= 1;
+
+                if (references <= 0) {
+                    close = true;
+
+                    if (SHARED == this) {
+                        SHARED = null;
+                    }
+                }
+            }
+
+            if (close) {
+                close();
+            }
+        }
+    }
+
+    private void close() {
+        if (multicast != null) {
+            multicast.close();
+        }
+
+        if (unicast != null) {
+            unicast.close();
+        }
+    }
+
+    /**
+     * Method to test if {@link.this} hub's sockets have been closed.
+     *
+     * @return  {@code true} if closed; {@code false} otherwise.
+     */
+    public boolean isClosed() {
+        return ((multicast == null || multicast.isClosed())
+                && (unicast == null || unicast.isClosed()));
+    }
+
+    private void receive(DatagramSocket socket) {
+        try {
+            socket.setSoTimeout((int) MILLISECONDS.convert(15, SECONDS));
+
+            while (! socket.isClosed()) {
+                try {
+                    byte[] bytes = new byte[8 * 1024];
+                    DatagramPacket packet = new DatagramPacket(bytes, bytes.length);
+
+                    socket.receive(packet);
+
+                    SSDPMessage message = parse(packet);
+
+                    if (message != null) {
+                        for (SSDPDiscoveryService service : services) {
+                            service.dispatch(socket, message);
+                        }
+                    }
+                } catch (SocketTimeoutException exception) {
+                }
+            }
+        } catch (IOException exception) {
+        }
+    }
+
+    private SSDPMessage parse(DatagramPacket packet) {
+        SSDPMessage message = null;
+
+        if (message == null) {
+            try {
+                message = SSDPResponse.from(packet);
+            } catch (ParseException exception) {
+            }
+        }
+
+        if (message == null) {
+            try {
+                message = SSDPRequest.from(packet);
+            } catch (ParseException exception) {
+            }
+        }
+
+        return message;
+    }
+}
@@ -0,0 +1,279 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.net.URI;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * Parsed SSDP {@code NT}/{@code ST} value.  Instances are immutable and
+ * are split into {@code scheme}, {@code domain}, {@code kind},
+ * {@code type}, and {@code version} components once at creation so
+ * {@link #matches(SSDPTarget)} and {@link #equals(Object)} do not
+ * allocate.  For example,
+ * {@code urn:schemas-upnp-org:device:MediaServer:1} is split into
+ * {@code urn}, {@code schemas-upnp-org}, {@code device},
+ * {@code MediaServer}, and {@code 1}.  Values that are not URNs only
+ * specify {@code scheme} and {@code type}.
+ *
+ * {@bean.info}
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@EqualsAndHashCode(onlyExplicitlyIncluded = true)
+public final class SSDPTarget {
+    private static final int LIMIT = 4 * 1024;
+    private static final ConcurrentHashMap<String,SSDPTarget> MAP = new ConcurrentHashMap<>();
+
+    /**
+     * {@link SSDPTarget} for {@link SSDPMessage#SSDP_ALL}.
+     */
+    public static final SSDPTarget SSDP_ALL = of(SSDPMessage.SSDP_ALL);
+
+    /**
+     * Static method to get the (interned if well-known) {@link SSDPTarget}
+     * for an {@link URI}.
+     *
+     * @param   uri             The {@code NT} or {@code ST} {@link URI}.
+     *
+     * @return  The {@link SSDPTarget}.
+     */
+    public static SSDPTarget of(URI uri) {
+        String string = uri.toString();
+        SSDPTarget target = MAP.get(string);
+
+        if (target == null) {
+            target = intern(new SSDPTarget(uri, string));
+        }
+
+        return target;
+    }
+
+    /**
+     * Static method to get the (interned if well-known) {@link SSDPTarget}
+     * for a header value.
+     *
+     * @param   string          The {@code NT} or {@code ST} header value.
+     *
+     * @return  The {@link SSDPTarget}.
+     */
+    public static SSDPTarget of(String string) {
+        SSDPTarget target = MAP.get(Objects.requireNonNull(string));
+
+        if (target == null) {
+            target = intern(new SSDPTarget(URI.create(string), string));
+        }
+
+        return target;
+    }
+
+    /*
+     * Values are parsed from network input so only the well-known forms
+     * are interned and the intern table is bounded: Once full, an
+     * (arbitrary) entry is evicted for each new one so junk values
+     * cannot permanently displace real targets.  Equality is value-based
+     * so correctness does not depend on identity.
+     */
+    private static SSDPTarget intern(SSDPTarget target) {
+        if (target.isWellKnown()) {
+            SSDPTarget interned = MAP.putIfAbsent(target.string, target);
+
+            if (interned != null) {
+                target = interned;
+            } else if (MAP.size() > LIMIT) {
+                Iterator<String> iterator = MAP.keySet().iterator();
+
+                while (MAP.size() > LIMIT && iterator.hasNext()) {
+                    if (! target.string.equals(iterator.next())) {
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+
+        return target;
+    }
+
+    private final URI uri;
+    private final String string;
+    @EqualsAndHashCode.Include
+    private final String key;
+    private final String prefix;
+    @Getter private final String scheme;
+    @Getter private final String domain;
+    @Getter private final String kind;
+    @Getter private final String type;
+    @Getter private final int version;
+
+    private SSDPTarget(URI uri, String string) {
+        this.uri = uri;
+        this.string = string;
+        this.key = string.toUpperCase(Locale.ROOT);
+
+        String[] tokens = string.split(":", -1);
+        String domain = null;
+        String kind = null;
+        String type = null;
+        int version = -1;
+
+        if (tokens.length > 1) {
+            type = string.substring(tokens[0].length() + 1);
+        }
+
+        if (tokens[0].equalsIgnoreCase("urn") && tokens.length > 2) {
+            String last = tokens[tokens.length - 1];
+
+            domain = tokens[1];
+            version = toVersion(last);
+
+            if (tokens.length == 5) {
+                kind = tokens[2];
+                type = tokens[3];
+            } else {
+                int end = string.length() - ((version >= 0) ? last.length() + 1 : 0);
+
+                type = string.substring(tokens[0].length() + tokens[1].length() + 2, end);
+            }
+        }
+
+        this.scheme = tokens[0];
+        this.domain = domain;
+        this.kind = kind;
+        this.type = type;
+        this.version = version;
+        this.prefix = (version >= 0) ? key.substring(0, key.lastIndexOf(':') + 1) : null;
+    }
+
+    private static int toVersion(String string) {
+        int version = -1;
+
+        if (0 < string.length() && string.length() < 10) {
+            version = 0;
+
+            for (int i = 0; i < string.length(); i += 1) {
+                char character = string.charAt(i);
+
+                if ('0' <= character && character <= '9') {
+                    version = (version * 10) + (character - '0');
+                } else {
+                    version = -1;
+                    break;
+                }
+            }
+        }
+
+        return version;
+    }
+
+    /*
+     * ssdp:all, upnp:rootdevice, uuid:<device-UUID>, and
+     * urn:<domain>:{device|service}:<type>:<version>.
+     */
+    private boolean isWellKnown() {
+        boolean wellKnown = false;
+
+        switch (scheme.toLowerCase(Locale.ROOT)) {
+        case "ssdp":
+            wellKnown = key.equals(SSDPMessage.SSDP_ALL.toString().toUpperCase(Locale.ROOT));
+            break;
+
+        case "upnp":
+            wellKnown = key.equals("UPNP:ROOTDEVICE");
+            break;
+
+        case "uuid":
+            wellKnown = (type != null && ! type.isEmpty());
+            break;
+
+        case "urn":
+            wellKnown =
+                (version >= 0 && type != null && ! type.isEmpty()
+                 && ("device".equalsIgnoreCase(kind) || "service".equalsIgnoreCase(kind)));
+            break;
+
+        default:
+            break;
+        }
+
+        return wellKnown;
+    }
+
+    /**
+     * Method to get the {@link URI} {@link.this} {@link SSDPTarget} was
+     * created from.
+     *
+     * @return  The {@link URI}.
+     */
+    public URI toURI() { return uri; }
+
+    /**
+     * Method to test if {@link.this} {@link SSDPTarget} is
+     * {@link SSDPMessage#SSDP_ALL}.
+     *
+     * @return  {@code true} if {@code ssdp:all}; {@code false} otherwise.
+     */
+    public boolean isAll() { return this == SSDP_ALL || key.equals(SSDP_ALL.key); }
+
+    /**
+     * Method to test if {@code that} {@link SSDPTarget} is the same URN
+     * type (ignoring version) as {@link.this}.
+     *
+     * @param   that            The {@link SSDPTarget} to compare.
+     *
+     * @return  {@code true} if both are versioned URNs of the same type;
+     *          {@code false} otherwise.
+     */
+    public boolean isSameType(SSDPTarget that) {
+        return prefix != null && that.prefix != null && prefix.equals(that.prefix);
+    }
+
+    /**
+     * Method to get the key shared by every version of {@link.this}
+     * target's URN type (or the case-insensitive value if {@link.this}
+     * target is not a versioned URN).  An {@code ST} may only be
+     * {@link #matches(SSDPTarget) satisfied} by an {@code NT} of the same
+     * family (unless the {@code ST} is {@link #isAll() ssdp:all}).
+     *
+     * @return  The family key.
+     */
+    public String getFamily() { return (prefix != null) ? prefix : key; }
+
+    /**
+     * Method to test if {@link.this} {@code ST} is satisfied by an
+     * {@code NT}.  See {@link ball.upnp.SSDP#matches(URI,URI)}.
+     *
+     * @param   nt              The {@code NT} {@link SSDPTarget}.
+     *
+     * @return  {@code true} if {@code nt} satisfies {@link.this};
+     *          {@code false} otherwise.
+     */
+    public boolean matches(SSDPTarget nt) {
+        return (isAll()
+                || this == nt || key.equals(nt.key)
+                || (isSameType(nt) && version <= nt.version));
+    }
+
+    @Override
+    public String toString() { return string; }
+}
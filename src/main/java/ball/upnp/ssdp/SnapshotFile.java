@@ -0,0 +1,254 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * {@link SSDPDiscoveryCache} snapshot file: A compact binary image of
+ * {@link DeviceRecord}s and their unexpired {@link DeviceRecord.Entry
+ * entries} written and read through memory-mapped {@link FileChannel}s.
+ * The layout is:
+ *
+ * <pre>
+ * int          MAGIC
+ * int          VERSION
+ * long         time written (milliseconds since the UNIX epoch)
+ * int          record count
+ * record*      string udn, string location, string server,
+ *              int bootId, int configId, int searchPort,
+ *              int entry count
+ *   entry*     string nt, string usn, long expiration
+ * </pre>
+ *
+ * where a string is an {@code int} UTF-8 byte length ({@code -1} for
+ * {@code null}) followed by the bytes.  Files are written to a temporary
+ * file that is then (atomically, if possible) moved into place.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+final class SnapshotFile {
+    private static final int MAGIC = 0x53534450;        /* "SSDP" */
+    private static final int VERSION = 1;
+    private static final int MINIMUM_RECORD_SIZE = (3 * Integer.BYTES) + (4 * Integer.BYTES);
+    private static final int MINIMUM_ENTRY_SIZE = (2 * Integer.BYTES) + Long.BYTES;
+
+    private SnapshotFile() { throw new UnsupportedOperationException(); }
+
+    /**
+     * Method to write a snapshot.  Only entries that expire after
+     * {@code now} are written.
+     *
+     * @param   file            The snapshot {@link File}.
+     * @param   records         The {@link DeviceRecord}s.
+     * @param   now             The current time (milliseconds since the
+     *                          UNIX epoch).
+     *
+     * @throws  IOException     If the snapshot cannot be written.
+     */
+    public static void write(File file, Collection<DeviceRecord> records, long now) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        List<DeviceRecord.Entry> entries = new ArrayList<>();
+        int count = 0;
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(now);
+        out.writeInt(0);
+
+        for (DeviceRecord record : records) {
+            entries.clear();
+
+            for (DeviceRecord.Entry entry : record.entries()) {
+                if (entry.getExpiration() > now) {
+                    entries.add(entry);
+                }
+            }
+
+            if (! entries.isEmpty()) {
+                write(out, record.getUdn());
+                write(out, record.getLocation());
+                write(out, record.getServer());
+                out.writeInt(record.getBootId());
+                out.writeInt(record.getConfigId());
+                out.writeInt(record.getSearchPort());
+                out.writeInt(entries.size());
+
+                for (DeviceRecord.Entry entry : entries) {
+                    write(out, entry.getNT());
+                    write(out, entry.getUSN());
+                    out.writeLong(entry.getExpiration());
+                }
+
+                count += 1;
+            }
+        }
+
+        out.flush();
+
+        byte[] array = bytes.toByteArray();
+
+        ByteBuffer.wrap(array).putInt(16, count);
+
+        Path path = file.toPath().toAbsolutePath();
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, READ, WRITE, CREATE, TRUNCATE_EXISTING)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, array.length);
+
+                buffer.put(array);
+                buffer.force();
+            }
+
+            try {
+                Files.move(temporary, path, REPLACE_EXISTING, ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException exception) {
+                Files.move(temporary, path, REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static void write(DataOutputStream out, Object object) throws IOException {
+        if (object != null) {
+            byte[] bytes = object.toString().getBytes(UTF_8);
+
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeInt(-1);
+        }
+    }
+
+    /**
+     * Method to read a snapshot.  Entries that have expired by
+     * {@code now} are discarded and the remaining are returned as
+     * {@link DeviceRecord.Entry#isProvisional() provisional}
+     * {@link DeviceRecord.Entry entries}.
+     *
+     * @param   file            The snapshot {@link File}.
+     * @param   now             The current time (milliseconds since the
+     *                          UNIX epoch).
+     *
+     * @return  The {@link List} of provisional
+     *          {@link DeviceRecord.Entry entries}.
+     *
+     * @throws  IOException     If the snapshot cannot be read or is
+     *                          malformed.
+     */
+    public static List<DeviceRecord.Entry> read(File file, long now) throws IOException {
+        List<DeviceRecord.Entry> list = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(file + ": Not a snapshot file");
+            }
+
+            buffer.getLong();
+
+            int records = count(buffer, MINIMUM_RECORD_SIZE);
+
+            for (int i = 0; i < records; i += 1) {
+                DeviceRecord record =
+                    new DeviceRecord(string(buffer), uri(buffer), string(buffer),
+                                     buffer.getInt(), buffer.getInt(), buffer.getInt());
+                int entries = count(buffer, MINIMUM_ENTRY_SIZE);
+
+                for (int j = 0; j < entries; j += 1) {
+                    URI nt = uri(buffer);
+                    URI usn = uri(buffer);
+                    long expiration = buffer.getLong();
+
+                    if (expiration > now && usn != null) {
+                        list.add(new DeviceRecord.Entry(record, nt, usn, expiration, true));
+                    }
+                }
+            }
+        } catch (RuntimeException exception) {
+            throw new IOException(file + ": " + exception.getMessage(), exception);
+        }
+
+        return list;
+    }
+
+    /*
+     * Lengths and counts are checked against the bytes remaining before
+     * anything is allocated: A corrupt (or hostile) file must not cause
+     * a huge allocation.
+     */
+    private static int count(ByteBuffer buffer, int size) {
+        int count = buffer.getInt();
+
+        if (count < 0 || count > buffer.remaining() / size) {
+            throw new IllegalArgumentException("Invalid count: " + count);
+        }
+
+        return count;
+    }
+
+    private static String string(ByteBuffer buffer) {
+        String string = null;
+        int length = buffer.getInt();
+
+        if (length < -1 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length: " + length);
+        }
+
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+
+            buffer.get(bytes);
+            string = new String(bytes, UTF_8);
+        }
+
+        return string;
+    }
+
+    private static URI uri(ByteBuffer buffer) {
+        String string = string(buffer);
+
+        return (string != null) ? URI.create(string) : null;
+    }
+}
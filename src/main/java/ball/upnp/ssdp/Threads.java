@@ -0,0 +1,94 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link Thread} creation support.  This implementation only provides
+ * platform {@link Thread}s; the Java 21 variant packaged in the
+ * multi-release JAR ({@code META-INF/versions/21}) also provides virtual
+ * {@link Thread}s.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+final class Threads {
+    private Threads() { }
+
+    /**
+     * Method to test if virtual {@link Thread}s are supported.
+     *
+     * @return  {@code true} if supported; {@code false} otherwise.
+     */
+    public static boolean isVirtualSupported() { return false; }
+
+    /**
+     * Method to get a platform {@link Thread} {@link ThreadFactory}.
+     *
+     * @param   name            The {@link Thread} name prefix.
+     * @param   daemon          Whether created {@link Thread}s are
+     *                          daemon {@link Thread}s.
+     *
+     * @return  The {@link ThreadFactory}.
+     */
+    public static ThreadFactory platform(String name, boolean daemon) {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+
+            thread.setDaemon(daemon);
+
+            return thread;
+        };
+    }
+
+    /**
+     * Method to get a virtual {@link Thread} {@link ThreadFactory}.
+     *
+     * @param   name            The {@link Thread} name prefix.
+     *
+     * @return  The {@link ThreadFactory}.
+     *
+     * @throws  UnsupportedOperationException
+     *                          If virtual {@link Thread}s are not
+     *                          supported.
+     */
+    public static ThreadFactory virtual(String name) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+
+    /**
+     * Method to get an {@link ExecutorService} that starts a new virtual
+     * {@link Thread} for each task.
+     *
+     * @param   name            The {@link Thread} name prefix.
+     *
+     * @return  The {@link ExecutorService}.
+     *
+     * @throws  UnsupportedOperationException
+     *                          If virtual {@link Thread}s are not
+     *                          supported.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+}
@@ -0,0 +1,135 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import lombok.Getter;
+import lombok.ToString;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Token bucket used to budget SSDP responses.  Permits may be reserved
+ * ahead of availability (the bucket goes into debt) in which case the
+ * caller is told how long to wait before using them.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+@ToString
+class TokenBucket {
+    private final double capacity;
+    private final double rate;
+    private double tokens;
+    private long time;
+    @Getter private long throttled = 0;
+
+    /**
+     * Sole constructor.
+     *
+     * @param   capacity        The bucket capacity (maximum burst).
+     * @param   rate            The refill rate (permits per second).
+     * @param   now             The current time (milliseconds since the
+     *                          UNIX epoch).
+     */
+    public TokenBucket(int capacity, int rate, long now) {
+        this.capacity = capacity;
+        this.rate = ((double) rate) / SECONDS.toMillis(1);
+        this.tokens = capacity;
+        this.time = now;
+    }
+
+    /**
+     * Method to reserve permits.
+     *
+     * @param   permits         The number of permits required.
+     * @param   now             The current time (milliseconds since the
+     *                          UNIX epoch).
+     * @param   limit           The maximum acceptable wait (in
+     *                          milliseconds).
+     *
+     * @return  The wait (in milliseconds) before the permits may be used
+     *          or {@code -1} if the wait would exceed {@code limit} (in
+     *          which case nothing is reserved).
+     */
+    public synchronized long reserve(int permits, long now, long limit) {
+        refill(now);
+
+        long wait = 0;
+
+        if (tokens < permits) {
+            wait = (long) Math.ceil((permits - tokens) / rate);
+        }
+
+        if (wait <= limit) {
+            tokens -= permits;
+        } else {
+            wait = -1;
+            throttled += 1;
+        }
+
+        return wait;
+    }
+
+    /**
+     * Method to get the number of permits that could be reserved
+     * (without reserving them).
+     *
+     * @param   now             The current time (milliseconds since the
+     *                          UNIX epoch).
+     * @param   limit           The maximum acceptable wait (in
+     *                          milliseconds).
+     *
+     * @return  The number of permits available within {@code limit}.
+     */
+    public synchronized int available(long now, long limit) {
+        refill(now);
+
+        return (int) Math.max(0, Math.min(Math.floor(tokens + (Math.max(limit, 0) * rate)), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Method to return previously reserved permits.
+     *
+     * @param   permits         The number of permits to return.
+     */
+    public synchronized void release(int permits) {
+        tokens = Math.min(tokens + permits, capacity);
+    }
+
+    /**
+     * Method to test if {@link.this} bucket is full (and therefore
+     * indistinguishable from a new bucket).
+     *
+     * @param   now             The current time (milliseconds since the
+     *                          UNIX epoch).
+     *
+     * @return  {@code true} if full; {@code false} otherwise.
+     */
+    public synchronized boolean isFull(long now) {
+        refill(now);
+
+        return tokens >= capacity;
+    }
+
+    private void refill(long now) {
+        if (now > time) {
+            tokens = Math.min(tokens + ((now - time) * rate), capacity);
+            time = now;
+        }
+    }
+}
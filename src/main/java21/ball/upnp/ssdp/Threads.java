@@ -0,0 +1,76 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * {@link Thread} creation support (Java 21 and later).  Provides both
+ * platform and virtual {@link Thread}s.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+final class Threads {
+    private Threads() { }
+
+    /**
+     * Method to test if virtual {@link Thread}s are supported.
+     *
+     * @return  {@code true} if supported; {@code false} otherwise.
+     */
+    public static boolean isVirtualSupported() { return true; }
+
+    /**
+     * Method to get a platform {@link Thread} {@link ThreadFactory}.
+     *
+     * @param   name            The {@link Thread} name prefix.
+     * @param   daemon          Whether created {@link Thread}s are
+     *                          daemon {@link Thread}s.
+     *
+     * @return  The {@link ThreadFactory}.
+     */
+    public static ThreadFactory platform(String name, boolean daemon) {
+        return Thread.ofPlatform().name(name + "-", 1).daemon(daemon).factory();
+    }
+
+    /**
+     * Method to get a virtual {@link Thread} {@link ThreadFactory}.
+     *
+     * @param   name            The {@link Thread} name prefix.
+     *
+     * @return  The {@link ThreadFactory}.
+     */
+    public static ThreadFactory virtual(String name) {
+        return Thread.ofVirtual().name(name + "-", 1).factory();
+    }
+
+    /**
+     * Method to get an {@link ExecutorService} that starts a new virtual
+     * {@link Thread} for each task.
+     *
+     * @param   name            The {@link Thread} name prefix.
+     *
+     * @return  The {@link ExecutorService}.
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(virtual(name));
+    }
+}
@@ -0,0 +1,203 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link DeviceRecord} tests.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public class DeviceRecordTest {
+    private static final String USN = "uuid:1::upnp:rootdevice";
+
+    static SSDPRequest alive(String source, int bootId, int configId) throws Exception {
+        String string =
+            "NOTIFY * HTTP/1.1\r\n"
+            + "HOST: 239.255.255.250:1900\r\n"
+            + "CACHE-CONTROL: max-age=1800\r\n"
+            + "LOCATION: http://" + source + ":49152/description.xml\r\n"
+            + "NT: upnp:rootdevice\r\n"
+            + "NTS: ssdp:alive\r\n"
+            + "SERVER: Linux/5.10 UPnP/2.0 Test/1.0\r\n"
+            + "USN: " + USN + "\r\n"
+            + "BOOTID.UPNP.ORG: " + bootId + "\r\n"
+            + "CONFIGID.UPNP.ORG: " + configId + "\r\n"
+            + "SEARCHPORT.UPNP.ORG: 1901\r\n"
+            + "X-VENDOR: value\r\n"
+            + "\r\n";
+        byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+
+        return SSDPRequest.from(new DatagramPacket(bytes, bytes.length, new InetSocketAddress(source, 1900)));
+    }
+
+    @Test
+    public void multiHomedDeviceIsNotStale() throws Exception {
+        DeviceRecord record = new DeviceRecord("uuid:1");
+
+        assertFalse(record.update(alive("10.0.0.1", 1, 1)));
+        assertFalse(record.update(alive("192.168.1.1", 1, 1)));
+        assertFalse(record.update(alive("10.0.0.1", 1, 1)));
+        assertFalse(record.update(alive("192.168.1.1", 1, 1)));
+
+        assertEquals(URI.create("http://10.0.0.1:49152/description.xml"), record.getLocation());
+        assertEquals(new HashSet<>(Arrays.asList("10.0.0.1", "192.168.1.1")), record.hosts());
+    }
+
+    @Test
+    public void bootIdOrConfigIdChangeIsStale() throws Exception {
+        DeviceRecord record = new DeviceRecord("uuid:1");
+
+        assertFalse(record.update(alive("10.0.0.1", 1, 1)));
+        assertFalse(record.update(alive("192.168.1.1", 1, 1)));
+        assertTrue(record.update(alive("10.0.0.1", 1, 2)));
+        assertTrue(record.update(alive("10.0.0.1", 2, 2)));
+        /*
+         * LOCATIONs received before the reboot are discarded.
+         */
+        assertEquals(new HashSet<>(Arrays.asList("10.0.0.1")), record.hosts());
+    }
+
+    @Test
+    public void confirmedDeviceDropsRestoredLocation() throws Exception {
+        DeviceRecord record =
+            new DeviceRecord("uuid:1", URI.create("http://10.0.0.1:49152/description.xml"),
+                             "Linux/5.10 UPnP/2.0 Test/1.0", 1, 1, 1901);
+
+        assertFalse(record.update(alive("10.0.0.2", 1, 1)));
+
+        assertEquals(URI.create("http://10.0.0.2:49152/description.xml"), record.getLocation());
+        assertEquals(new HashSet<>(Arrays.asList("10.0.0.2")), record.hosts());
+        assertEquals(1, record.endpoints().length);
+    }
+
+    @Test
+    public void sharesRetainedHeaders() throws Exception {
+        DeviceRecord record = new DeviceRecord("uuid:1");
+        SSDPRequest first = alive("10.0.0.1", 1, 1);
+        SSDPRequest second = alive("10.0.0.1", 1, 1);
+
+        first.addHeader("DATE", "Sun, 18 Oct 2026 00:00:00 GMT");
+        second.addHeader("DATE", "Sun, 18 Oct 2026 00:00:01 GMT");
+
+        DeviceRecord.Entry one = new DeviceRecord.Entry(record, URI.create("upnp:rootdevice"), URI.create(USN), false, first);
+        DeviceRecord.Entry two = new DeviceRecord.Entry(record, URI.create("uuid:1"), URI.create("uuid:1"), false, second);
+
+        assertSame(one.getFirstHeader("X-VENDOR"), two.getFirstHeader("X-VENDOR"));
+        assertSame(one.getStartLine(), two.getStartLine());
+        assertFalse(one.containsHeader("DATE"));
+        assertEquals("value", two.getHeaderValue("X-VENDOR"));
+        assertEquals("upnp:rootdevice", one.getHeaderValue("NT"));
+        assertEquals(1, one.getHeaders("USN").length);
+        assertEquals(one.getHeaders().length, two.getHeaders().length);
+    }
+
+    private static DeviceRecord.Entry entry(DeviceRecord record) throws Exception {
+        SSDPRequest message = alive("10.0.0.1", 3, 4);
+
+        record.update(message);
+
+        DeviceRecord.Entry entry =
+            new DeviceRecord.Entry(record, message.getNT(), message.getUSN(), false, message);
+
+        record.add(entry);
+
+        return entry;
+    }
+
+    @Test
+    public void serializes() throws Exception {
+        DeviceRecord.Entry expected = entry(new DeviceRecord("uuid:1"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(expected.getRecord());
+        }
+
+        DeviceRecord record = null;
+
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            record = (DeviceRecord) in.readObject();
+        }
+
+        assertEquals(1, record.entries().length);
+
+        DeviceRecord.Entry actual = record.entries()[0];
+
+        assertEquals("uuid:1", record.getUdn());
+        assertEquals(expected.getRecord().getLocation(), record.getLocation());
+        assertEquals(expected.getRecord().hosts(), record.hosts());
+        assertEquals(expected.getRecord().getServer(), record.getServer());
+        assertEquals(3, record.getBootId());
+        assertEquals(4, record.getConfigId());
+        assertEquals(1901, record.getSearchPort());
+        assertEquals(expected.getNT(), actual.getNT());
+        assertEquals(expected.getUSN(), actual.getUSN());
+        assertEquals(expected.getExpiration(), actual.getExpiration());
+        assertEquals(expected.getStartLine(), actual.getStartLine());
+        assertEquals("value", actual.getHeaderValue("X-VENDOR"));
+        assertFalse(actual.isProvisional());
+    }
+
+    @Test
+    public void snapshots() throws Exception {
+        DeviceRecord.Entry expected = entry(new DeviceRecord("uuid:1"));
+        File file = File.createTempFile("snapshot", ".bin");
+
+        file.deleteOnExit();
+        SnapshotFile.write(file, Collections.singleton(expected.getRecord()), System.currentTimeMillis());
+
+        List<DeviceRecord.Entry> list = SnapshotFile.read(file, System.currentTimeMillis());
+
+        assertEquals(1, list.size());
+
+        DeviceRecord.Entry actual = list.get(0);
+        DeviceRecord record = actual.getRecord();
+
+        assertEquals("uuid:1", record.getUdn());
+        assertEquals(expected.getRecord().getLocation(), record.getLocation());
+        assertEquals(expected.getRecord().getServer(), record.getServer());
+        assertEquals(3, record.getBootId());
+        assertEquals(4, record.getConfigId());
+        assertEquals(1901, record.getSearchPort());
+        assertEquals(expected.getNT(), actual.getNT());
+        assertEquals(expected.getUSN(), actual.getUSN());
+        assertEquals(expected.getExpiration(), actual.getExpiration());
+        assertTrue(actual.isProvisional());
+    }
+}
@@ -0,0 +1,334 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import ball.upnp.ssdp.SSDPDiscoveryCache.Change;
+import java.io.File;
+import java.net.DatagramPacket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.jupiter.api.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link SSDPDiscoveryCache} tests.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public class SSDPDiscoveryCacheTest {
+    private static final String ROOT = "upnp:rootdevice";
+
+    static SSDPRequest alive(String source, String nt, String usn) throws Exception {
+        String string =
+            "NOTIFY * HTTP/1.1\r\n"
+            + "HOST: 239.255.255.250:1900\r\n"
+            + "CACHE-CONTROL: max-age=1800\r\n"
+            + "LOCATION: http://" + source + ":49152/description.xml\r\n"
+            + "NT: " + nt + "\r\n"
+            + "NTS: ssdp:alive\r\n"
+            + "SERVER: Linux/5.10 UPnP/2.0 Test/1.0\r\n"
+            + "USN: " + usn + "\r\n"
+            + "BOOTID.UPNP.ORG: 1\r\n"
+            + "CONFIGID.UPNP.ORG: 1\r\n"
+            + "SEARCHPORT.UPNP.ORG: 1901\r\n"
+            + "\r\n";
+        byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+
+        return SSDPRequest.from(new DatagramPacket(bytes, bytes.length, new InetSocketAddress(source, 1900)));
+    }
+
+    private static SSDPRequest alive(int sequence, URI usn) throws Exception {
+        String string =
+            "NOTIFY * HTTP/1.1\r\n"
+            + "HOST: 239.255.255.250:1900\r\n"
+            + "CACHE-CONTROL: max-age=1800\r\n"
+            + "LOCATION: http://10.0.0.1:49152/description.xml\r\n"
+            + "NT: " + usn.toString().substring(usn.toString().indexOf("::") + 2) + "\r\n"
+            + "NTS: ssdp:alive\r\n"
+            + "SERVER: Linux/5.10 UPnP/2.0 Test/1.0\r\n"
+            + "USN: " + usn + "\r\n"
+            + "X-SEQUENCE: " + sequence + "\r\n"
+            + "\r\n";
+        byte[] bytes = string.getBytes(StandardCharsets.US_ASCII);
+
+        return SSDPRequest.from(new DatagramPacket(bytes, bytes.length, new InetSocketAddress("10.0.0.1", 1900)));
+    }
+
+    private static String sequence(SSDPMessage message) {
+        return (message != null) ? message.getHeaderValue("X-SEQUENCE") : null;
+    }
+
+    @Test
+    public void matchesHashMap() throws Exception {
+        String[] types = {
+            ROOT,
+            "urn:schemas-upnp-org:device:MediaServer:1",
+            "urn:schemas-upnp-org:service:ContentDirectory:1",
+            "urn:schemas-upnp-org:service:ConnectionManager:2"
+        };
+        SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+        HashMap<URI,String> map = new HashMap<>();
+        Random random = new Random(0);
+
+        for (int i = 0; i < 20000; i += 1) {
+            URI usn = URI.create("uuid:" + random.nextInt(32) + "::" + types[random.nextInt(types.length)]);
+            SSDPRequest message = alive(i, usn);
+            String value = String.valueOf(i);
+
+            switch (random.nextInt(8)) {
+            case 0:
+            case 1:
+                assertEquals(map.put(usn, value), sequence(cache.put(usn, message)));
+                break;
+
+            case 2:
+                assertEquals(map.remove(usn), sequence(cache.remove(usn)));
+                break;
+
+            case 3:
+                assertEquals(map.putIfAbsent(usn, value), sequence(cache.putIfAbsent(usn, message)));
+                break;
+
+            case 4:
+                assertEquals(map.replace(usn, value), sequence(cache.replace(usn, message)));
+                break;
+
+            case 5:
+                assertEquals(map.compute(usn, (k, v) -> (v == null) ? value : null),
+                             sequence(cache.compute(usn, (k, v) -> (v == null) ? message : null)));
+                break;
+
+            case 6:
+                assertEquals(map.merge(usn, value, (k, v) -> v),
+                             sequence(cache.merge(usn, message, (k, v) -> v)));
+                break;
+
+            default:
+                SSDPMessage current = cache.get(usn);
+
+                if (current != null) {
+                    assertEquals(map.replace(usn, map.get(usn), value), cache.replace(usn, current, message));
+                }
+                break;
+            }
+        }
+
+        assertEquals(map.keySet(), cache.keySet());
+
+        for (Map.Entry<URI,String> entry : map.entrySet()) {
+            assertEquals(entry.getValue(), sequence(cache.get(entry.getKey())));
+        }
+
+        HashSet<URI> set = new HashSet<>();
+
+        for (int i = 0; i < 32; i += 1) {
+            cache.getByUDN(URI.create("uuid:" + i)).forEach(t -> set.add(t.getUSN()));
+        }
+
+        assertEquals(map.keySet(), set);
+
+        set.clear();
+
+        for (String type : types) {
+            cache.search(URI.create(type)).forEach(t -> set.add(t.getUSN()));
+        }
+
+        assertEquals(map.keySet(), set);
+
+        set.clear();
+        cache.getByLocationHost("10.0.0.1").forEach(t -> set.add(t.getUSN()));
+
+        assertEquals(map.keySet(), set);
+    }
+
+    @Test
+    public void admitsSameDeviceAtMaximumSize() throws Exception {
+        SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+        String nt = "urn:schemas-upnp-org:device:MediaServer:1";
+
+        cache.setMaximumSize(1);
+        cache.put(URI.create("uuid:1::" + ROOT), alive("10.0.0.1", ROOT, "uuid:1::" + ROOT));
+        cache.put(URI.create("uuid:1::" + nt), alive("10.0.0.1", nt, "uuid:1::" + nt));
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(URI.create("uuid:1::" + nt)));
+    }
+
+    @Test
+    public void countsRemovalsAgainstMaximumSize() throws Exception {
+        SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+
+        cache.setMaximumSize(2);
+
+        for (int i = 0; i < 64; i += 1) {
+            URI usn = URI.create("uuid:" + i + "::" + ROOT);
+
+            cache.put(usn, alive("10.0.0.1", ROOT, usn.toString()));
+
+            if (i % 2 == 0) {
+                cache.remove(usn);
+            } else {
+                cache.pollFirstEntry();
+            }
+        }
+
+        cache.put(URI.create("uuid:a::" + ROOT), alive("10.0.0.1", ROOT, "uuid:a::" + ROOT));
+        cache.put(URI.create("uuid:b::" + ROOT), alive("10.0.0.1", ROOT, "uuid:b::" + ROOT));
+
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictedCount());
+        assertEquals(0, cache.getRejectedCount());
+
+        cache.clear();
+        cache.put(URI.create("uuid:c::" + ROOT), alive("10.0.0.1", ROOT, "uuid:c::" + ROOT));
+        cache.put(URI.create("uuid:d::" + ROOT), alive("10.0.0.1", ROOT, "uuid:d::" + ROOT));
+
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getEvictedCount());
+        assertEquals(0, cache.getRejectedCount());
+    }
+
+    @Test
+    public void rejectsOneOffUSNsAtMaximumSize() throws Exception {
+        SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+        URI usn = URI.create("uuid:1::" + ROOT);
+
+        cache.setMaximumSize(1);
+
+        for (int i = 0; i < 8; i += 1) {
+            cache.put(usn, alive("10.0.0.1", ROOT, usn.toString()));
+        }
+
+        for (int i = 2; i < 256; i += 1) {
+            cache.put(URI.create("uuid:" + i + "::" + ROOT), alive("10.0.0.2", ROOT, "uuid:" + i + "::" + ROOT));
+        }
+
+        assertEquals(1, cache.size());
+        assertNotNull(cache.get(usn));
+    }
+
+    @Test
+    public void indexesEveryLocationHost() throws Exception {
+        SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+        URI usn = URI.create("uuid:1::" + ROOT);
+
+        cache.put(usn, alive("10.0.0.1", ROOT, usn.toString()));
+        cache.put(usn, alive("192.168.1.1", ROOT, usn.toString()));
+
+        assertEquals(1, cache.getByLocationHost("10.0.0.1").size());
+        assertEquals(1, cache.getByLocationHost("192.168.1.1").size());
+
+        cache.remove(usn);
+
+        assertEquals(0, cache.getByLocationHost("10.0.0.1").size());
+        assertEquals(0, cache.getByLocationHost("192.168.1.1").size());
+    }
+
+    @Test
+    public void reindexesRestoredDeviceAtNewLocation() throws Exception {
+        SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+        URI usn = URI.create("uuid:1::" + ROOT);
+        DeviceRecord record =
+            new DeviceRecord("uuid:1", URI.create("http://10.0.0.1:49152/description.xml"),
+                             "Linux/5.10 UPnP/2.0 Test/1.0", 1, 1, 1901);
+
+        File file = File.createTempFile("snapshot", ".bin");
+
+        file.deleteOnExit();
+        record.add(new DeviceRecord.Entry(record, URI.create(ROOT), usn, System.currentTimeMillis() + 60000, false));
+        SnapshotFile.write(file, Collections.singleton(record), System.currentTimeMillis());
+
+        cache.setSnapshotFile(file);
+
+        assertEquals(1, cache.loadSnapshot());
+
+        assertEquals(1, cache.getByLocationHost("10.0.0.1").size());
+
+        cache.put(usn, alive("10.0.0.2", ROOT, usn.toString()));
+
+        assertEquals(URI.create("http://10.0.0.2:49152/description.xml"), cache.get(usn).getLocation());
+        assertEquals(0, cache.getByLocationHost("10.0.0.1").size());
+        assertEquals(1, cache.getByLocationHost("10.0.0.2").size());
+    }
+
+    @Test
+    public void deliversChangesAfterWorkerRejection() throws Exception {
+        SSDPDiscoveryService.Configuration configuration =
+            new SSDPDiscoveryService.Configuration()
+            .workers(1).workerQueueCapacity(1)
+            .threading(SSDPDiscoveryService.Threading.PLATFORM)
+            .role(SSDPDiscoveryService.Role.MONITOR);
+        /*
+         * No sockets are opened: The cache is driven directly.
+         */
+        try (SSDPDiscoveryService service =
+                 new SSDPDiscoveryService("test/1.0", configuration, SSDPSocketHub.unbound())) {
+            SSDPDiscoveryCache cache = new SSDPDiscoveryCache();
+            BlockingQueue<List<Change>> batches = new LinkedBlockingQueue<>();
+
+            cache.setCoalescingWindow(50);
+            cache.addChangeListener((k, v) -> batches.add(v));
+            service.addListener(cache);
+
+            CountDownLatch latch = new CountDownLatch(1);
+
+            service.submit(() -> { latch.await(); return null; });
+            service.submit(() -> { });
+            assertThrows(RejectedExecutionException.class, () -> service.submit(() -> { }));
+
+            cache.put(URI.create("uuid:1::" + ROOT), alive("10.0.0.1", ROOT, "uuid:1::" + ROOT));
+            /*
+             * The hand-off to the (blocked) worker is rejected at least
+             * once.
+             */
+            assertNull(batches.poll(250, MILLISECONDS));
+
+            latch.countDown();
+
+            List<Change> batch = batches.poll(5, SECONDS);
+
+            assertNotNull(batch);
+            assertEquals(new Change(Change.Type.ADDED, URI.create("uuid:1")), batch.get(0));
+
+            cache.put(URI.create("uuid:2::" + ROOT), alive("10.0.0.2", ROOT, "uuid:2::" + ROOT));
+
+            batch = batches.poll(5, SECONDS);
+
+            assertNotNull(batch);
+            assertEquals(new Change(Change.Type.ADDED, URI.create("uuid:2")), batch.get(0));
+        }
+    }
+}
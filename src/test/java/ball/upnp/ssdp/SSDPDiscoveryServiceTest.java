@@ -0,0 +1,63 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link SSDPDiscoveryService} tests.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public class SSDPDiscoveryServiceTest {
+
+    /*
+     * Hold the SSDP port (without SO_REUSEADDR) so the service cannot
+     * open its multicast socket.  If the port is already held elsewhere
+     * the service fails the same way.
+     */
+    private static DatagramSocket hold() throws IOException {
+        DatagramSocket socket = new DatagramSocket(null);
+
+        try {
+            socket.setReuseAddress(false);
+            socket.bind(new InetSocketAddress(SSDPMulticastSocket.INET_SOCKET_ADDRESS.getPort()));
+        } catch (SocketException exception) {
+        }
+
+        return socket;
+    }
+
+    @Test
+    public void throwsIOExceptionIfSocketsCannotBeOpened() throws Exception {
+        try (DatagramSocket socket = hold()) {
+            SSDPDiscoveryService.Configuration configuration =
+                new SSDPDiscoveryService.Configuration().shared(false);
+
+            assertThrows(IOException.class, () -> new SSDPDiscoveryService("test/1.0", configuration));
+            assertThrows(IOException.class, () -> new SSDPDiscoveryService("test/1.0"));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link SSDPTarget} tests.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public class SSDPTargetTest {
+    private static final String MEDIA_SERVER = "urn:schemas-upnp-org:device:MediaServer:";
+
+    private static boolean matches(String st, String nt) {
+        return SSDPTarget.of(st).matches(SSDPTarget.of(nt));
+    }
+
+    @Test
+    public void matchesSameOrLaterVersion() {
+        assertFalse(matches(MEDIA_SERVER + "2", MEDIA_SERVER + "1"));
+        assertTrue(matches(MEDIA_SERVER + "2", MEDIA_SERVER + "2"));
+        assertTrue(matches(MEDIA_SERVER + "2", MEDIA_SERVER + "3"));
+        assertFalse(matches(MEDIA_SERVER + "2", "urn:schemas-upnp-org:device:MediaRenderer:3"));
+        assertFalse(matches(MEDIA_SERVER + "2", "urn:schemas-upnp-org:service:MediaServer:3"));
+        assertTrue(matches("urn:schemas-example-com:device:Gadget:1", "urn:schemas-example-com:device:Gadget:10"));
+        assertFalse(matches("urn:schemas-example-com:device:Gadget:10", "urn:schemas-example-com:device:Gadget:9"));
+    }
+
+    @Test
+    public void matchesAll() {
+        assertTrue(SSDPTarget.of(SSDPMessage.SSDP_ALL).isAll());
+        assertTrue(matches("ssdp:all", "upnp:rootdevice"));
+        assertTrue(matches("ssdp:all", "uuid:1"));
+        assertTrue(matches("ssdp:all", MEDIA_SERVER + "1"));
+        assertFalse(matches("upnp:rootdevice", "ssdp:all"));
+    }
+
+    @Test
+    public void matchesExactly() {
+        assertTrue(matches("upnp:rootdevice", "upnp:rootdevice"));
+        assertTrue(matches("upnp:rootdevice", "UPNP:ROOTDEVICE"));
+        assertFalse(matches("upnp:rootdevice", "uuid:1"));
+        assertTrue(matches("uuid:1", "uuid:1"));
+        assertFalse(matches("uuid:1", "uuid:10"));
+        assertFalse(matches("uuid:1", MEDIA_SERVER + "1"));
+    }
+
+    @Test
+    public void parses() {
+        SSDPTarget target = SSDPTarget.of(MEDIA_SERVER + "2");
+
+        assertEquals("schemas-upnp-org", target.getDomain());
+        assertEquals("device", target.getKind());
+        assertEquals("MediaServer", target.getType());
+        assertEquals(2, target.getVersion());
+        assertEquals(SSDPTarget.of(MEDIA_SERVER + "1").getFamily(), target.getFamily());
+        assertSame(target, SSDPTarget.of(MEDIA_SERVER + "2"));
+        assertEquals(-1, SSDPTarget.of("upnp:rootdevice").getVersion());
+    }
+
+    @Test
+    public void internsOnlyWellKnownTargets() {
+        assertNotSame(SSDPTarget.of("x-junk:1"), SSDPTarget.of("x-junk:1"));
+        assertNotSame(SSDPTarget.of("urn:example:Junk"), SSDPTarget.of("urn:example:Junk"));
+
+        for (int i = 0; i < 16 * 1024; i += 1) {
+            SSDPTarget.of("uuid:" + i);
+        }
+
+        assertSame(SSDPTarget.of(MEDIA_SERVER + "7"), SSDPTarget.of(MEDIA_SERVER + "7"));
+        assertSame(SSDPTarget.of("upnp:rootdevice"), SSDPTarget.of("upnp:rootdevice"));
+    }
+}
@@ -0,0 +1,95 @@
+package ball.upnp.ssdp;
+/*-
+ * ##########################################################################
+ * UPnP/SSDP Implementation Classes
+ * %%
+ * Copyright (C) 2013 - 2022 Allen D. Ball
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ##########################################################################
+ */
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * {@link SnapshotFile} tests.
+ *
+ * @author {@link.uri mailto:ball@hcf.dev Allen D. Ball}
+ */
+public class SnapshotFileTest {
+    private static final int RECORD_COUNT_OFFSET = 16;
+    private static final int UDN_LENGTH_OFFSET = 20;
+
+    private static File write() throws IOException {
+        long now = System.currentTimeMillis();
+        DeviceRecord record =
+            new DeviceRecord("uuid:1", URI.create("http://10.0.0.1:49152/description.xml"),
+                             "Linux/5.10 UPnP/2.0 Test/1.0", 1, 2, 1901);
+
+        record.add(new DeviceRecord.Entry(record, URI.create("upnp:rootdevice"),
+                                          URI.create("uuid:1::upnp:rootdevice"), now + 60000, false));
+
+        File file = File.createTempFile("snapshot", ".bin");
+
+        file.deleteOnExit();
+        SnapshotFile.write(file, Collections.singleton(record), now);
+
+        return file;
+    }
+
+    private static void patch(File file, int offset, int value) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        ByteBuffer.wrap(bytes).putInt(offset, value);
+        Files.write(file.toPath(), bytes);
+    }
+
+    @Test
+    public void reads() throws Exception {
+        List<DeviceRecord.Entry> list = SnapshotFile.read(write(), System.currentTimeMillis());
+
+        assertEquals(1, list.size());
+        assertEquals(URI.create("uuid:1::upnp:rootdevice"), list.get(0).getUSN());
+    }
+
+    @Test
+    public void rejectsStringLengthBeyondEnd() throws Exception {
+        File file = write();
+
+        patch(file, UDN_LENGTH_OFFSET, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> SnapshotFile.read(file, System.currentTimeMillis()));
+
+        patch(file, UDN_LENGTH_OFFSET, -2);
+        assertThrows(IOException.class, () -> SnapshotFile.read(file, System.currentTimeMillis()));
+    }
+
+    @Test
+    public void rejectsCountBeyondEnd() throws Exception {
+        File file = write();
+
+        patch(file, RECORD_COUNT_OFFSET, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> SnapshotFile.read(file, System.currentTimeMillis()));
+
+        patch(file, RECORD_COUNT_OFFSET, -1);
+        assertThrows(IOException.class, () -> SnapshotFile.read(file, System.currentTimeMillis()));
+    }
+}